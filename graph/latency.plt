@@ -0,0 +1,18 @@
+#!/usr/bin/gnuplot
+reset
+set terminal png size 600,450
+
+set key left top Left reverse box
+set ylabel "99.9th Percentile Latency (us)"
+set xlabel "Batch Size"
+
+set title "QBuffer Latency"
+set grid
+
+set logscale x
+set logscale y
+set style data linespoints
+
+us(nanos) = nanos / 1000
+
+plot for [i=0:*] "latency.dat" index i using 1:(us($5)) title columnheader(1)
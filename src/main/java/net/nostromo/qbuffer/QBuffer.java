@@ -85,7 +85,7 @@ public class QBuffer<E> {
      *
      * @return the next power of 2
      */
-    private static int nextPowerOf2(final int value) {
+    static int nextPowerOf2(final int value) {
         return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
     }
 }
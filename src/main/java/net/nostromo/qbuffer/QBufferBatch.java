@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A view of the items claimed by a single {@link QBufferConsumer#beginBatch()} call.
+ * <p>
+ * The view reads directly from the queue's backing array, so no items are copied. Its Spliterator splits at the
+ * point where the claimed range wraps around the end of the array, which lets a parallel stream process a single
+ * batch on several threads.
+ * <p>
+ * The consumer may only commit once every item in the batch has been processed, either by traversing a stream or
+ * spliterator to the end or by calling {@link #forEach(Consumer)}. A batch can only be traversed once, so only one of
+ * forEach(), spliterator(), stream() or parallelStream() may be called per batch. If a traversal stops early, for
+ * example through a short-circuiting stream operation or an exception, {@link #discardRemaining()} releases the
+ * untouched items so the batch can still be committed. The view is reused by the consumer for each batch.
+ *
+ * @param <E> the type of items held in this queue
+ */
+public class QBufferBatch<E> {
+
+    private final E[] data;
+    private final int mask;
+
+    // the number of items not yet processed, updated by any thread traversing this batch
+    private final AtomicLong remaining = new AtomicLong();
+
+    private long start;
+    private int size;
+    private boolean open;
+
+    // set once the spliterator for this batch has been handed out
+    private boolean traversed;
+
+    QBufferBatch(final E[] data, final int mask) {
+        this.data = data;
+        this.mask = mask;
+    }
+
+    // called by the consumer each time a new range is claimed
+    void open(final long start, final int size) {
+        this.start = start;
+        this.size = size;
+        remaining.set(size);
+        traversed = false;
+        // an empty batch never needs to be committed
+        open = size > 0;
+    }
+
+    // called by the consumer when committing, returns the number of items in the batch
+    int close() {
+        if (remaining.get() != 0) {
+            throw new IllegalStateException("batch has " + remaining.get() + " unprocessed items");
+        }
+
+        open = false;
+        return size;
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    // the queue sequence of the first item in this batch
+    long start() {
+        return start;
+    }
+
+    /**
+     * Returns the number of items in this batch.
+     *
+     * @return the number of items in this batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns true when every item in this batch has been processed and the consumer may commit.
+     *
+     * @return true if the batch has been fully processed
+     */
+    public boolean isProcessed() {
+        return remaining.get() == 0;
+    }
+
+    /**
+     * Marks every item in this batch that hasn't been processed as processed, so the batch can be committed after a
+     * traversal stopped early. The discarded items are removed from the queue on commit like the others.
+     * <p>
+     * This must not be called while another thread is still traversing this batch.
+     */
+    public void discardRemaining() {
+        remaining.set(0);
+    }
+
+    /**
+     * Returns the item at the given position within this batch. This does not count as processing the item.
+     *
+     * @param index the position within the batch, from 0 to size() - 1
+     *
+     * @return the item at the given position
+     */
+    public E get(final int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index + " >= " + size);
+        return data[(int) ((start + index) & mask)];
+    }
+
+    /**
+     * Passes every item in this batch to the given action in queue order on the calling thread.
+     *
+     * @param action the action to perform on each item
+     */
+    public void forEach(final Consumer<? super E> action) {
+        spliterator().forEachRemaining(action);
+    }
+
+    /**
+     * Returns a Spliterator over the items in this batch. This may only be called once per batch, and forEach(),
+     * stream() and parallelStream() call it too.
+     *
+     * @return a Spliterator over this batch
+     *
+     * @throws IllegalStateException if this batch has already been traversed
+     */
+    public Spliterator<E> spliterator() {
+        // a second traversal would count the same items as processed twice
+        if (traversed) throw new IllegalStateException("batch has already been traversed");
+        traversed = true;
+
+        return new BatchSpliterator(start, start + size);
+    }
+
+    /**
+     * Returns a sequential Stream over the items in this batch. A short-circuiting terminal operation such as
+     * findFirst(), anyMatch() or one after limit() may leave items unprocessed, in which case discardRemaining() must
+     * be called before the consumer commits.
+     *
+     * @return a sequential Stream over this batch
+     */
+    public Stream<E> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel Stream over the items in this batch. As with stream(), discardRemaining() must be called
+     * before the consumer commits if a short-circuiting terminal operation left items unprocessed.
+     *
+     * @return a parallel Stream over this batch
+     */
+    public Stream<E> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    // traverses the queue sequence range [index, fence)
+    private final class BatchSpliterator implements Spliterator<E> {
+
+        private long index;
+        private final long fence;
+
+        BatchSpliterator(final long index, final long fence) {
+            this.index = index;
+            this.fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super E> action) {
+            if (index >= fence) return false;
+
+            action.accept(data[(int) (index++ & mask)]);
+            remaining.decrementAndGet();
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(final Consumer<? super E> action) {
+            final long count = fence - index;
+            if (count <= 0) return;
+
+            for (long seq = index; seq < fence; seq++) {
+                action.accept(data[(int) (seq & mask)]);
+            }
+
+            index = fence;
+            remaining.addAndGet(-count);
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            final long lo = index;
+            if (fence - lo < 2) return null;
+
+            // split where the range wraps around the end of the array, otherwise split in half
+            final long wrap = (lo | mask) + 1;
+            final long mid = (wrap < fence) ? wrap : (lo + fence) >>> 1;
+
+            index = mid;
+            return new BatchSpliterator(lo, mid);
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE;
+        }
+    }
+}
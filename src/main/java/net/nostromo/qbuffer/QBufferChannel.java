@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * QBufferChannel is a request/response channel between two threads built from a pair of QBuffers.
+ * <p>
+ * The client thread sends requests through one queue and the server thread sends responses back through the other.
+ * The server handles requests in order, so the n-th response always belongs to the n-th request. This means requests
+ * are correlated by their sequence number, without a map and without allocating anything per request.
+ *
+ * @param <Q> the type of requests
+ * @param <R> the type of responses
+ */
+public class QBufferChannel<Q, R> {
+
+    private final QBufferClient<Q, R> client;
+    private final QBufferServer<Q, R> server;
+
+    /**
+     * Constructs a QBufferChannel with the given (fixed) capacity and batch size for both queues.
+     *
+     * @param capacity the maximum capacity of each queue
+     * @param batchSize the maximum number of items that can be added or removed from a queue at one time
+     */
+    public QBufferChannel(final int capacity, final int batchSize) {
+        final QBuffer<Q> requests = new QBuffer<>(capacity, batchSize);
+        final QBuffer<R> responses = new QBuffer<>(capacity, batchSize);
+
+        client = new QBufferClient<>(requests.producer(), responses.consumer());
+        server = new QBufferServer<>(requests.consumer(), responses.producer());
+    }
+
+    /**
+     * Returns the client side object of the channel.
+     *
+     * @return the QBufferClient for this channel
+     */
+    public QBufferClient<Q, R> client() {
+        return client;
+    }
+
+    /**
+     * Returns the server side object of the channel.
+     *
+     * @return the QBufferServer for this channel
+     */
+    public QBufferServer<Q, R> server() {
+        return server;
+    }
+}
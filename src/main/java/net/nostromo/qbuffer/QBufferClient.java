@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * The client side object of the QBufferChannel.
+ * <p>
+ * Requests are sent in batches just like items are added to a QBuffer: call begin(), then send() up to the returned
+ * number of times, then commit(). Responses are handled in batches by receive().
+ * <p>
+ * The client keeps every outstanding request in a ring indexed by its sequence number, so each response is handed
+ * back together with its request.
+ *
+ * @param <Q> the type of requests
+ * @param <R> the type of responses
+ */
+public class QBufferClient<Q, R> {
+
+    private final QBufferProducer<Q> producer;
+    private final QBufferConsumer<R> consumer;
+
+    // the outstanding requests, indexed by sequence number
+    private final Q[] outstanding;
+    private final int mask;
+
+    private long sent;
+    private long received;
+
+    @SuppressWarnings("unchecked")
+    QBufferClient(final QBufferProducer<Q> producer, final QBufferConsumer<R> consumer) {
+        this.producer = producer;
+        this.consumer = consumer;
+
+        // requests can be waiting in either queue, both capacities are powers of 2
+        outstanding = (Q[]) new Object[producer.capacity() + consumer.capacity()];
+        mask = outstanding.length - 1;
+    }
+
+    /**
+     * Returns the number of requests that can be sent before the next commit.
+     *
+     * @return the number of requests that can be sent, or -1 if the channel is full and inactive
+     */
+    public long begin() {
+        final long available = producer.begin();
+        final long free = outstanding.length - pending();
+        return (free < available) ? free : available;
+    }
+
+    /**
+     * Adds a request to the channel. The request is sent on the next commit.
+     *
+     * @param request the request
+     *
+     * @return the sequence number of the request
+     */
+    public long send(final Q request) {
+        final long sequence = sent++;
+        outstanding[(int) (sequence & mask)] = request;
+        producer.produce(request);
+        return sequence;
+    }
+
+    public long commit() {
+        return producer.commit();
+    }
+
+    public long lazyCommit() {
+        return producer.lazyCommit();
+    }
+
+    /**
+     * Passes the next batch of responses, with their requests, to the given handler.
+     *
+     * @param handler the handler called for each response
+     *
+     * @return the number of responses handled, or -1 if there are no responses and the server has closed the channel
+     */
+    public long receive(final QBufferResponseHandler<? super Q, ? super R> handler) {
+        final long count = consumer.begin();
+        if (count <= 0) return count;
+
+        for (int x = 0; x < count; x++) {
+            final long sequence = received++;
+            final int idx = (int) (sequence & mask);
+            final Q request = outstanding[idx];
+            outstanding[idx] = null;
+            handler.handle(sequence, request, consumer.consume());
+        }
+
+        consumer.commit();
+        return count;
+    }
+
+    /**
+     * Returns the number of requests sent that haven't received a response.
+     *
+     * @return the number of outstanding requests
+     */
+    public long pending() {
+        return sent - received;
+    }
+
+    /**
+     * Tells the server that no more requests will be sent.
+     *
+     * @return true if the channel was active
+     */
+    public boolean close() {
+        return producer.deactivate();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * QBufferCompact is a single producer single consumer queue with a small memory footprint, intended for use cases
+ * with a very large number of mostly idle queues, such as per session mailboxes.
+ * <p>
+ * It works like a QBuffer, but everything lives in a single object. The head, tail and active flag are volatile
+ * fields instead of separate Atomic objects, and the producer and consumer state are fields instead of separate
+ * participant objects. The backing array is only allocated when the producer first adds items, and the producer can
+ * give it back with trim() once the queue is empty.
+ * <p>
+ * The producer side methods must only be called from the producer thread, and the consumer side methods must only be
+ * called from the consumer thread. Because the fields for both sides share an object, a busy QBufferCompact is
+ * somewhat slower than a QBuffer.
+ *
+ * @param <E> the type of items held in this queue
+ */
+public class QBufferCompact<E> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<QBufferCompact> HEAD =
+            AtomicLongFieldUpdater.newUpdater(QBufferCompact.class, "head");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<QBufferCompact> TAIL =
+            AtomicLongFieldUpdater.newUpdater(QBufferCompact.class, "tail");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<QBufferCompact> ACTIVE =
+            AtomicIntegerFieldUpdater.newUpdater(QBufferCompact.class, "active");
+
+    // the total number of items added and removed, and whether this queue is active (1) or not (0)
+    private volatile long head;
+    private volatile long tail;
+    private volatile int active = 1;
+
+    private final int capacity;
+    private final int batchSize;
+
+    // allocated by the producer, and published to the consumer by the write to head
+    private E[] data;
+
+    // used only by the producer thread
+    private long produceOps;
+    private long produceCapacity;
+
+    // used only by the consumer thread
+    private long consumeOps;
+    private long consumeCapacity;
+
+    /**
+     * Constructs a QBufferCompact with the given (fixed) capacity and batch size.
+     *
+     * @param capacity the maximum capacity of the queue
+     * @param batchSize the maximum number of items that can be added or removed from the queue at one time
+     */
+    public QBufferCompact(final int capacity, final int batchSize) {
+        // data.length must be a power of 2
+        this.capacity = QBuffer.nextPowerOf2(capacity);
+        // batchSize can't be greater than data.length
+        this.batchSize = Math.min(batchSize, this.capacity);
+    }
+
+    /**
+     * The queue size is calculated by subtracting the number of removals from the number of adds.
+     *
+     * @return the number of items currently in the queue
+     */
+    public long size() {
+        return head - tail;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isActive() {
+        return active == 1;
+    }
+
+    public boolean activate() {
+        return ACTIVE.compareAndSet(this, 0, 1);
+    }
+
+    public boolean deactivate() {
+        return ACTIVE.compareAndSet(this, 1, 0);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns true if the backing array is currently allocated.
+     *
+     * @return true if the backing array is allocated
+     */
+    public boolean isAllocated() {
+        return data != null;
+    }
+
+    // ---- producer side ----
+
+    /**
+     * Producer side equivalent of QBufferProducer.begin(). Allocates the backing array if needed.
+     *
+     * @return the number of items that can be added, or -1 when the queue is full and inactive
+     */
+    @SuppressWarnings("unchecked")
+    public long beginProduce() {
+        // do we need to calculate a new produceCapacity?
+        if (produceCapacity == 0) {
+            final boolean active = isActive();
+            produceCapacity = capacity - (produceOps - tail);
+            // return -1 when full and inactive
+            if (produceCapacity == 0 && !active) return -1;
+        }
+
+        if (produceCapacity > 0 && data == null) data = (E[]) new Object[capacity];
+
+        // return produceCapacity, but ensure it's not greater than batchSize
+        return (batchSize < produceCapacity) ? batchSize : produceCapacity;
+    }
+
+    /**
+     * Add an item to the end of the queue.
+     *
+     * @param e the item to be added
+     */
+    public void produce(final E e) {
+        data[(int) (produceOps++ & (capacity - 1))] = e;
+    }
+
+    public long commitProduce() {
+        final long opCount = produceOps - head;
+        produceCapacity -= opCount;
+        HEAD.set(this, produceOps);
+        return opCount;
+    }
+
+    public long lazyCommitProduce() {
+        final long opCount = produceOps - head;
+        produceCapacity -= opCount;
+        HEAD.lazySet(this, produceOps);
+        return opCount;
+    }
+
+    /**
+     * Releases the backing array if the consumer has committed every item. It's allocated again by the next call to
+     * beginProduce() that has room to add items.
+     * <p>
+     * This must only be called from the producer thread.
+     *
+     * @return true if the backing array was released
+     */
+    public boolean trim() {
+        if (data == null || produceOps != tail) return false;
+
+        data = null;
+        return true;
+    }
+
+    // ---- consumer side ----
+
+    /**
+     * Consumer side equivalent of QBufferConsumer.begin().
+     *
+     * @return the number of items that can be removed, or -1 when the queue is empty and inactive
+     */
+    public long beginConsume() {
+        // do we need to calculate a new consumeCapacity?
+        if (consumeCapacity == 0) {
+            final boolean active = isActive();
+            consumeCapacity = head - consumeOps;
+            // return -1 when empty and inactive
+            if (consumeCapacity == 0 && !active) return -1;
+        }
+
+        // return consumeCapacity, but ensure it's not greater than batchSize
+        return (batchSize < consumeCapacity) ? batchSize : consumeCapacity;
+    }
+
+    /**
+     * Returns the last item in the queue.
+     *
+     * @return the last item in the queue
+     */
+    public E consume() {
+        return data[(int) (consumeOps++ & (capacity - 1))];
+    }
+
+    public long commitConsume() {
+        final long opCount = consumeOps - tail;
+        consumeCapacity -= opCount;
+        TAIL.set(this, consumeOps);
+        return opCount;
+    }
+
+    public long lazyCommitConsume() {
+        final long opCount = consumeOps - tail;
+        consumeCapacity -= opCount;
+        TAIL.lazySet(this, consumeOps);
+        return opCount;
+    }
+}
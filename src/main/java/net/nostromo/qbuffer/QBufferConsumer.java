@@ -26,6 +26,9 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class QBufferConsumer<E> extends QBufferParticipant<E> {
 
+    // created on the first call to beginBatch()
+    private QBufferBatch<E> batch;
+
     // see the QBufferParticipant constructor for more info
     protected QBufferConsumer(final E[] data, final AtomicLong tail, final AtomicLong head, final AtomicBoolean active,
             final int batchSize) {
@@ -63,4 +66,57 @@ public class QBufferConsumer<E> extends QBufferParticipant<E> {
     public E consume() {
         return data[(int) (ops++ & mask)];
     }
+
+    /**
+     * Returns the item the given number of positions past the next item without removing it from the queue.
+     *
+     * @param offset the number of items past the next item, must be less than the value returned by begin()
+     *
+     * @return the item at the given offset
+     */
+    public E peek(final int offset) {
+        return data[(int) ((ops + offset) & mask)];
+    }
+
+    /**
+     * Removes the given number of items from the queue without returning them. Together with peek(int) this allows
+     * only part of a claimed batch to be committed.
+     *
+     * @param count the number of items to remove, must not be more than the value returned by begin()
+     */
+    public void skip(final int count) {
+        ops += count;
+    }
+
+    /**
+     * Claims the next batch of items and returns a view of them. This is an alternative to calling begin() and then
+     * consume() for each item. The items are consumed when the batch is committed, which is only allowed once the
+     * whole batch has been processed.
+     * <p>
+     * The same view object is returned on every call, so a batch must be committed before the next one is claimed.
+     *
+     * @return a view of the claimed items, or null when the queue is empty and inactive
+     */
+    public QBufferBatch<E> beginBatch() {
+        if (batch == null) batch = new QBufferBatch<>(data, mask);
+        else if (batch.isOpen()) throw new IllegalStateException("previous batch has not been committed");
+
+        final long count = begin();
+        if (count < 0) return null;
+
+        batch.open(ops, (int) count);
+        return batch;
+    }
+
+    // consume the batch items, if any, before the commit
+    @Override
+    void beforeCommit() {
+        if (batch != null && batch.isOpen()) {
+            // the batch's items are consumed here, so they must not have been consumed one at a time as well
+            if (ops != batch.start()) {
+                throw new IllegalStateException("items were consumed while a batch was open");
+            }
+            ops += batch.close();
+        }
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A QBuffer whose consumer side is run by a QBufferScheduler only when it has items.
+ * <p>
+ * The producer adds items through producer() as usual, but commits through the mailbox. A commit that finds the
+ * mailbox idle schedules it with a single compare-and-set. When it runs, the mailbox passes at most one batch of
+ * items to its handler, then either goes idle or, if more items are waiting, schedules itself again behind the other
+ * mailboxes.
+ * <p>
+ * A mailbox is never run by two threads at once, and each run happens after the previous one, so the consumer keeps
+ * its single consumer semantics even though it may run on a different thread each time.
+ * <p>
+ * If the handler throws, the item it was given counts as handled: the items handled so far are committed, the mailbox
+ * carries on with the remaining items, and the exception is passed on to the executor. A ForkJoinPool reports it to
+ * its UncaughtExceptionHandler.
+ *
+ * @param <E> the type of items held in this queue
+ */
+public class QBufferMailbox<E> implements Runnable {
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+
+    private final Executor executor;
+    private final QBufferProducer<E> producer;
+    private final QBufferConsumer<E> consumer;
+    private final QBufferHandler<? super E> handler;
+
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+
+    QBufferMailbox(final Executor executor, final QBuffer<E> queue, final QBufferHandler<? super E> handler) {
+        this.executor = executor;
+        this.handler = handler;
+        producer = queue.producer();
+        consumer = queue.consumer();
+    }
+
+    /**
+     * Returns the Producer side object of the queue. Items must be committed through the mailbox, not the producer.
+     *
+     * @return the QBufferProducer for this mailbox
+     */
+    public QBufferProducer<E> producer() {
+        return producer;
+    }
+
+    /**
+     * Commits the items added through producer() and schedules the mailbox if it's idle.
+     *
+     * @return the number of items committed
+     */
+    public long commit() {
+        final long count = producer.commit();
+        if (count > 0) schedule();
+        return count;
+    }
+
+    /**
+     * Lazily commits the items added through producer() and schedules the mailbox if it's idle.
+     *
+     * @return the number of items committed
+     */
+    public long lazyCommit() {
+        final long count = producer.lazyCommit();
+
+        // the lazy store can be reordered with a plain read of the state, which could miss run() going idle, so
+        // always use the compare-and-set, which is a full fence
+        if (count > 0 && state.compareAndSet(IDLE, SCHEDULED)) executor.execute(this);
+        return count;
+    }
+
+    /**
+     * Schedules the mailbox to run unless it's already scheduled or running.
+     *
+     * @return true if this call scheduled the mailbox
+     */
+    public boolean schedule() {
+        if (state.get() != IDLE || !state.compareAndSet(IDLE, SCHEDULED)) return false;
+
+        executor.execute(this);
+        return true;
+    }
+
+    public boolean isScheduled() {
+        return state.get() != IDLE;
+    }
+
+    @Override
+    public void run() {
+        try {
+            final long count = consumer.begin();
+
+            for (int x = 0; x < count; x++) {
+                handler.handle(consumer.consume());
+            }
+        } finally {
+            // commits the handled items, including one the handler threw on
+            consumer.commit();
+
+            state.set(IDLE);
+
+            // a commit made while running saw the mailbox scheduled and didn't schedule it, so check again
+            if (!consumer.isEmpty()) schedule();
+        }
+    }
+}
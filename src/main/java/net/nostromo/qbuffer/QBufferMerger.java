@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * QBufferMerger merges the items from several queues, each already ordered by key, into a single stream ordered by
+ * key.
+ * <p>
+ * Each source is read a batch at a time: the merger claims a batch with begin(), looks at the next item in it with
+ * peek(), and only commits the source once the batch has been used up. The sources are kept in a binary heap ordered
+ * by the key of their next item. Items with equal keys are taken from the source with the lowest index first.
+ * <p>
+ * An item can only be emitted once every source has a next item to compare it with, so an empty source holds up the
+ * merge. After a source has been empty for longer than the timeout, the merge carries on without it until it has
+ * items again. Items that then arrive with a key lower than one already emitted are emitted late, out of order.
+ * <p>
+ * The merger must only be used from a single thread, and it's the only user of the sources' consumer side.
+ *
+ * @param <E> the type of items held in the queues
+ */
+public class QBufferMerger<E> {
+
+    private final QBufferConsumer<E>[] sources;
+    private final ToLongFunction<? super E> key;
+    private final long timeoutNanos;
+
+    // per source state, indexed by source
+    private final long[] keys;
+    private final long[] remaining;
+    private final long[] uncommitted;
+    private final long[] emptySince;
+    private final boolean[] empty;
+    private final boolean[] timedOut;
+
+    // timed out sources are only checked again at the start of a merge and after a batch has been used up
+    private boolean recheck;
+
+    // min heap of the sources that have a next item
+    private final int[] heap;
+    private int heapSize;
+
+    // the sources that have no next item and aren't closed
+    private final int[] waiting;
+    private int waitingSize;
+
+    /**
+     * Constructs a QBufferMerger over the given sources.
+     *
+     * @param sources the consumer sides of the queues to merge
+     * @param key returns the key of an item
+     * @param timeoutNanos how long an empty source may hold up the merge, Long.MAX_VALUE to wait forever
+     */
+    public QBufferMerger(final QBufferConsumer<E>[] sources, final ToLongFunction<? super E> key,
+            final long timeoutNanos) {
+        this.sources = sources.clone();
+        this.key = key;
+        this.timeoutNanos = timeoutNanos;
+
+        final int count = sources.length;
+        keys = new long[count];
+        remaining = new long[count];
+        uncommitted = new long[count];
+        emptySince = new long[count];
+        empty = new boolean[count];
+        timedOut = new boolean[count];
+        heap = new int[count];
+        waiting = new int[count];
+
+        // every source starts out waiting
+        for (int x = 0; x < count; x++) {
+            waiting[x] = x;
+        }
+        waitingSize = count;
+    }
+
+    /**
+     * Passes items to the given handler in key order until an empty source holds up the merge or there are no items
+     * left.
+     *
+     * @param handler the handler called for each item
+     *
+     * @return the number of items handled, or -1 when every source is empty and inactive
+     */
+    public long merge(final QBufferHandler<? super E> handler) {
+        long count = 0;
+        recheck = true;
+
+        while (refill() && heapSize > 0) {
+            final int s = heap[0];
+            final QBufferConsumer<E> source = sources[s];
+
+            handler.handle(source.consume());
+            count++;
+            uncommitted[s]++;
+
+            if (--remaining[s] > 0) {
+                keys[s] = key.applyAsLong(source.peek());
+                siftDown(0);
+            } else {
+                // the batch is used up, commit it and try for the next one
+                commit(s);
+                pop();
+                waiting[waitingSize++] = s;
+                recheck = true;
+            }
+        }
+
+        // don't hold on to space in the sources while the merge is held up
+        for (int x = 0; x < heapSize; x++) {
+            if (uncommitted[heap[x]] > 0) commit(heap[x]);
+        }
+
+        return (count == 0 && heapSize == 0 && waitingSize == 0) ? -1 : count;
+    }
+
+    /**
+     * Returns the number of sources that still have items or are active.
+     *
+     * @return the number of open sources
+     */
+    public int openSources() {
+        return heapSize + waitingSize;
+    }
+
+    // claims a batch from each waiting source, returns false if an empty source is holding up the merge
+    private boolean refill() {
+        boolean blocked = false;
+        long now = 0;
+
+        for (int x = 0; x < waitingSize; ) {
+            final int s = waiting[x];
+
+            // otherwise a source that stays empty would be checked once per item
+            if (timedOut[s] && !recheck) {
+                x++;
+                continue;
+            }
+
+            final long n = sources[s].begin();
+
+            if (n != 0) {
+                // the source has items or is closed, either way it's no longer waiting
+                waiting[x] = waiting[--waitingSize];
+                empty[s] = false;
+                timedOut[s] = false;
+                if (n > 0) {
+                    remaining[s] = n;
+                    keys[s] = key.applyAsLong(sources[s].peek());
+                    push(s);
+                }
+                continue;
+            }
+
+            if (now == 0) now = System.nanoTime();
+
+            if (!empty[s]) {
+                empty[s] = true;
+                emptySince[s] = now;
+            }
+
+            if (now - emptySince[s] < timeoutNanos) blocked = true;
+            else timedOut[s] = true;
+            x++;
+        }
+
+        recheck = false;
+        return !blocked;
+    }
+
+    private void commit(final int s) {
+        sources[s].commit();
+        uncommitted[s] = 0;
+    }
+
+    private boolean less(final int a, final int b) {
+        return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+    }
+
+    private void push(final int s) {
+        int idx = heapSize++;
+        while (idx > 0) {
+            final int parent = (idx - 1) >>> 1;
+            if (!less(s, heap[parent])) break;
+            heap[idx] = heap[parent];
+            idx = parent;
+        }
+        heap[idx] = s;
+    }
+
+    private void pop() {
+        heap[0] = heap[--heapSize];
+        if (heapSize > 0) siftDown(0);
+    }
+
+    private void siftDown(int idx) {
+        final int s = heap[idx];
+        final int half = heapSize >>> 1;
+
+        while (idx < half) {
+            int child = (idx << 1) + 1;
+            if (child + 1 < heapSize && less(heap[child + 1], heap[child])) child++;
+            if (!less(heap[child], s)) break;
+            heap[idx] = heap[child];
+            idx = child;
+        }
+        heap[idx] = s;
+    }
+}
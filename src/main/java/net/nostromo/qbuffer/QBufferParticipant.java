@@ -72,6 +72,10 @@ public abstract class QBufferParticipant<E> {
 
     abstract long availableOperations();
 
+    // hook for subclasses that need to update ops before it's published
+    void beforeCommit() {
+    }
+
     public abstract long size();
 
     public E peek() {
@@ -128,6 +132,8 @@ public abstract class QBufferParticipant<E> {
     }
 
     private long commit(final CommitMode mode) {
+        beforeCommit();
+
         final long opCount = ops - tail.get();
         opsCapacity -= opCount;
 
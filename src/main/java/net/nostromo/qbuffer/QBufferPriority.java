@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * QBufferPriority is a single producer single consumer queue with several priority lanes, lane 0 being the highest.
+ * <p>
+ * Each lane is its own QBuffer, so items in one lane never wait behind items in another lane's ring, and each lane
+ * is committed in batches on its own. The consumer picks the lane for each batch in one of two ways:
+ * <ul>
+ * <li>strict priority: always the highest lane that has items. Lower lanes can starve.</li>
+ * <li>weighted deficit round robin: the lanes take turns, and in each turn a lane may give up to its weight in items.
+ * A high lane's items wait at most one round, and no lane starves.</li>
+ * </ul>
+ *
+ * @param <E> the type of items held in this queue
+ */
+public class QBufferPriority<E> {
+
+    private final QBufferPriorityProducer<E> producer;
+    private final QBufferPriorityConsumer<E> consumer;
+
+    /**
+     * Constructs a QBufferPriority with the given number of lanes, using strict priority.
+     *
+     * @param laneCount the number of lanes
+     * @param capacity the maximum capacity of each lane
+     * @param batchSize the maximum number of items that can be added or removed from a lane at one time
+     */
+    public QBufferPriority(final int laneCount, final int capacity, final int batchSize) {
+        this(laneCount, capacity, batchSize, null);
+    }
+
+    /**
+     * Constructs a QBufferPriority with one lane per weight, using weighted deficit round robin.
+     *
+     * @param weights the maximum number of items taken from each lane in its turn, each at least 1
+     * @param capacity the maximum capacity of each lane
+     * @param batchSize the maximum number of items that can be added or removed from a lane at one time
+     */
+    public QBufferPriority(final int[] weights, final int capacity, final int batchSize) {
+        this(weights.length, capacity, batchSize, weights.clone());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private QBufferPriority(final int laneCount, final int capacity, final int batchSize, final int[] weights) {
+        if (laneCount < 1) throw new IllegalArgumentException("laneCount must be at least 1: " + laneCount);
+
+        if (weights != null) {
+            for (final int weight : weights) {
+                if (weight < 1) throw new IllegalArgumentException("weights must be at least 1: " + weight);
+            }
+        }
+
+        final QBufferProducer<E>[] producers = new QBufferProducer[laneCount];
+        final QBufferConsumer<E>[] consumers = new QBufferConsumer[laneCount];
+
+        for (int x = 0; x < laneCount; x++) {
+            final QBuffer<E> lane = new QBuffer<>(capacity, batchSize);
+            producers[x] = lane.producer();
+            consumers[x] = lane.consumer();
+        }
+
+        producer = new QBufferPriorityProducer<>(producers);
+        consumer = new QBufferPriorityConsumer<>(consumers, weights);
+    }
+
+    /**
+     * Returns the Producer side object of the queue.
+     *
+     * @return the QBufferPriorityProducer for this queue
+     */
+    public QBufferPriorityProducer<E> producer() {
+        return producer;
+    }
+
+    /**
+     * Returns the Consumer side object of the queue.
+     *
+     * @return the QBufferPriorityConsumer for this queue
+     */
+    public QBufferPriorityConsumer<E> consumer() {
+        return consumer;
+    }
+}
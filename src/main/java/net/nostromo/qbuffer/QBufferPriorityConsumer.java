@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * The consumer side object of the QBufferPriority queue.
+ * <p>
+ * begin() picks the lane the next batch is taken from, and consume() and commit() work on that lane. Once items have
+ * been consumed, begin() stays on the same lane until they're committed.
+ *
+ * @param <E> the type of items held in this queue
+ */
+public class QBufferPriorityConsumer<E> {
+
+    private final QBufferConsumer<E>[] lanes;
+
+    // null for strict priority
+    private final int[] weights;
+    private final long[] deficits;
+
+    // the lane chosen by the last begin(), and the next lane in the round for weighted mode
+    private int lane;
+    private int next;
+
+    // the number of items consumed since the last commit
+    private long consumed;
+
+    QBufferPriorityConsumer(final QBufferConsumer<E>[] lanes, final int[] weights) {
+        this.lanes = lanes;
+        this.weights = weights;
+        deficits = (weights == null) ? null : new long[lanes.length];
+    }
+
+    /**
+     * Picks a lane and returns the number of items that can be taken from it.
+     *
+     * @return the number of items that can be removed, or -1 when every lane is empty and inactive
+     */
+    public long begin() {
+        // stay on the current lane until the consumed items are committed
+        if (consumed > 0) {
+            final long count = lanes[lane].begin() - consumed;
+            return (weights == null) ? count : Math.min(count, deficits[lane] - consumed);
+        }
+
+        return (weights == null) ? beginStrict() : beginWeighted();
+    }
+
+    // the highest lane with items
+    private long beginStrict() {
+        boolean active = false;
+
+        for (int x = 0; x < lanes.length; x++) {
+            final long count = lanes[x].begin();
+            if (count > 0) {
+                lane = x;
+                return count;
+            }
+            if (count == 0) active = true;
+        }
+
+        return active ? 0 : -1;
+    }
+
+    // the next lane in the round with items, limited by its deficit
+    private long beginWeighted() {
+        boolean active = false;
+
+        // at most one full round, so each lane is checked once
+        for (int x = 0; x < lanes.length; x++) {
+            final int idx = next;
+            final long count = lanes[idx].begin();
+
+            if (count > 0) {
+                // a deficit of 0 means the lane's turn is just starting
+                if (deficits[idx] == 0) deficits[idx] = weights[idx];
+                lane = idx;
+                return Math.min(count, deficits[idx]);
+            }
+
+            if (count == 0) active = true;
+
+            // an empty lane loses the rest of its turn
+            deficits[idx] = 0;
+            next = (idx + 1 == lanes.length) ? 0 : idx + 1;
+        }
+
+        return active ? 0 : -1;
+    }
+
+    /**
+     * Returns the next item in the current lane.
+     *
+     * @return the next item in the current lane
+     */
+    public E consume() {
+        consumed++;
+        return lanes[lane].consume();
+    }
+
+    public long commit() {
+        return afterCommit(lanes[lane].commit());
+    }
+
+    public long lazyCommit() {
+        return afterCommit(lanes[lane].lazyCommit());
+    }
+
+    public long lazyMixCommit() {
+        return afterCommit(lanes[lane].lazyMixCommit());
+    }
+
+    private long afterCommit(final long count) {
+        consumed = 0;
+
+        if (weights != null && count > 0) {
+            deficits[lane] -= count;
+            // the lane's turn is over, move on to the next lane
+            if (deficits[lane] <= 0) {
+                deficits[lane] = 0;
+                next = (lane + 1 == lanes.length) ? 0 : lane + 1;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the lane chosen by the last begin().
+     *
+     * @return the current lane, 0 being the highest priority
+     */
+    public int lane() {
+        return lane;
+    }
+
+    /**
+     * Returns the Consumer side object of the given lane.
+     *
+     * @param lane the lane, 0 being the highest priority
+     *
+     * @return the QBufferConsumer for the lane
+     */
+    public QBufferConsumer<E> lane(final int lane) {
+        return lanes[lane];
+    }
+
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    public long size() {
+        long size = 0;
+        for (final QBufferConsumer<E> lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isActive() {
+        return lanes[0].isActive();
+    }
+
+    // every lane is kept in the same state, so the lanes act like a single QBuffer
+    public boolean activate() {
+        boolean activated = false;
+        for (final QBufferConsumer<E> lane : lanes) {
+            activated |= lane.activate();
+        }
+        return activated;
+    }
+
+    public boolean deactivate() {
+        boolean deactivated = false;
+        for (final QBufferConsumer<E> lane : lanes) {
+            deactivated |= lane.deactivate();
+        }
+        return deactivated;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * The producer side object of the QBufferPriority queue.
+ * <p>
+ * Items are added to one lane at a time: begin(lane), then produce() up to the returned number of times, then
+ * commit(). Each lane can be left with uncommitted items while another lane is used.
+ *
+ * @param <E> the type of items held in this queue
+ */
+public class QBufferPriorityProducer<E> {
+
+    private final QBufferProducer<E>[] lanes;
+
+    // the lane chosen by the last begin()
+    private QBufferProducer<E> current;
+
+    QBufferPriorityProducer(final QBufferProducer<E>[] lanes) {
+        this.lanes = lanes;
+        current = lanes[0];
+    }
+
+    /**
+     * Selects the given lane for the following produce() and commit() calls.
+     *
+     * @param lane the lane, 0 being the highest priority
+     *
+     * @return the number of items that can be added to the lane, or -1 when the lane is full and inactive
+     */
+    public long begin(final int lane) {
+        current = lanes[lane];
+        return current.begin();
+    }
+
+    /**
+     * Add an item to the end of the current lane.
+     *
+     * @param e the item to be added
+     */
+    public void produce(final E e) {
+        current.produce(e);
+    }
+
+    public long commit() {
+        return current.commit();
+    }
+
+    public long lazyCommit() {
+        return current.lazyCommit();
+    }
+
+    public long lazyMixCommit() {
+        return current.lazyMixCommit();
+    }
+
+    /**
+     * Returns the Producer side object of the given lane.
+     *
+     * @param lane the lane, 0 being the highest priority
+     *
+     * @return the QBufferProducer for the lane
+     */
+    public QBufferProducer<E> lane(final int lane) {
+        return lanes[lane];
+    }
+
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    public long size() {
+        long size = 0;
+        for (final QBufferProducer<E> lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    public boolean isActive() {
+        return lanes[0].isActive();
+    }
+
+    // every lane is kept in the same state, so the lanes act like a single QBuffer
+    public boolean activate() {
+        boolean activated = false;
+        for (final QBufferProducer<E> lane : lanes) {
+            activated |= lane.activate();
+        }
+        return activated;
+    }
+
+    public boolean deactivate() {
+        boolean deactivated = false;
+        for (final QBufferProducer<E> lane : lanes) {
+            deactivated |= lane.deactivate();
+        }
+        return deactivated;
+    }
+}
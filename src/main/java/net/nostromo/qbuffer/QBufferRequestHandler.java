@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * Handles the requests taken from a QBufferChannel by its server side.
+ *
+ * @param <Q> the type of requests
+ * @param <R> the type of responses
+ */
+public interface QBufferRequestHandler<Q, R> {
+
+    /**
+     * Handles a single request and returns its response.
+     *
+     * @param sequence the sequence number of the request, starting at 0
+     * @param request the request
+     *
+     * @return the response sent back to the client
+     */
+    R handle(long sequence, Q request);
+}
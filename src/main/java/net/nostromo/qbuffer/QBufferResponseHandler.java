@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * Handles the responses taken from a QBufferChannel by its client side.
+ *
+ * @param <Q> the type of requests
+ * @param <R> the type of responses
+ */
+public interface QBufferResponseHandler<Q, R> {
+
+    /**
+     * Handles a single response.
+     *
+     * @param sequence the sequence number returned by QBufferClient.send() for the request
+     * @param request the request this is the response to
+     * @param response the response
+     */
+    void handle(long sequence, Q request, R response);
+}
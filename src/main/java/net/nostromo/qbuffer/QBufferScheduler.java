@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * QBufferScheduler runs the consumer side of many queues on a shared ForkJoinPool.
+ * <p>
+ * Rather than dedicating a thread to each consumer, each queue is registered as a QBufferMailbox with a handler. A
+ * mailbox only takes up a pool thread while it has items, and it gives the thread up after each batch so that busy
+ * mailboxes can't starve the others.
+ */
+public class QBufferScheduler {
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs a QBufferScheduler with a new pool that has one thread per available processor. The pool runs
+     * mailboxes in the order they were scheduled.
+     */
+    public QBufferScheduler() {
+        this((Thread.UncaughtExceptionHandler) null);
+    }
+
+    /**
+     * Constructs a QBufferScheduler with a new pool that has one thread per available processor. The pool runs
+     * mailboxes in the order they were scheduled.
+     *
+     * @param errorHandler called with the exceptions thrown by mailbox handlers, or null for the pool's default
+     */
+    public QBufferScheduler(final Thread.UncaughtExceptionHandler errorHandler) {
+        this(new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, errorHandler, true));
+    }
+
+    /**
+     * Constructs a QBufferScheduler that runs mailboxes on the given pool.
+     *
+     * @param pool the pool used to run mailboxes
+     */
+    public QBufferScheduler(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Creates a mailbox that passes the items in the given queue to the given handler. Only the mailbox may use the
+     * consumer side of the queue from now on.
+     *
+     * @param queue the queue
+     * @param handler the handler called for each item
+     * @param <E> the type of items held in the queue
+     *
+     * @return the mailbox, to be used by the producer thread
+     */
+    public <E> QBufferMailbox<E> register(final QBuffer<E> queue, final QBufferHandler<? super E> handler) {
+        final QBufferMailbox<E> mailbox = new QBufferMailbox<>(pool, queue, handler);
+
+        // the queue may already have items
+        if (!queue.consumer().isEmpty()) mailbox.schedule();
+
+        return mailbox;
+    }
+
+    public ForkJoinPool pool() {
+        return pool;
+    }
+
+    /**
+     * Shuts down the pool. Mailboxes that are already scheduled still run.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
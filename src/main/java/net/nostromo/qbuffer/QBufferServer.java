@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * The server side object of the QBufferChannel.
+ *
+ * @param <Q> the type of requests
+ * @param <R> the type of responses
+ */
+public class QBufferServer<Q, R> {
+
+    private final QBufferConsumer<Q> consumer;
+    private final QBufferProducer<R> producer;
+
+    private long sequence;
+
+    QBufferServer(final QBufferConsumer<Q> consumer, final QBufferProducer<R> producer) {
+        this.consumer = consumer;
+        this.producer = producer;
+    }
+
+    /**
+     * Passes the next batch of requests to the given handler and sends back the responses it returns.
+     *
+     * @param handler the handler called for each request
+     *
+     * @return the number of requests handled, or -1 if there are no requests and the client has closed the channel
+     */
+    public long serve(final QBufferRequestHandler<? super Q, ? extends R> handler) {
+        final long requests = consumer.begin();
+        if (requests <= 0) return requests;
+
+        final long responses = producer.begin();
+        if (responses <= 0) return 0;
+
+        final long count = (requests < responses) ? requests : responses;
+        for (int x = 0; x < count; x++) {
+            producer.produce(handler.handle(sequence++, consumer.consume()));
+        }
+
+        // publish the responses before freeing the requests, so the client never loses track of a request
+        producer.commit();
+        consumer.commit();
+
+        return count;
+    }
+
+    /**
+     * Tells the client that no more responses will be sent.
+     *
+     * @return true if the channel was active
+     */
+    public boolean close() {
+        return producer.deactivate();
+    }
+}
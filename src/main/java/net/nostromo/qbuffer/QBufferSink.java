@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+/**
+ * Drains a queue of ByteBuffers into a channel, such as a SocketChannel or FileChannel.
+ * <p>
+ * Each call to drain() writes the whole batch returned by the consumer's begin() with a single gathering write, so a
+ * batch costs one system call rather than one per item. Only items that were completely written are committed. A
+ * partially written item stays at the front of the queue, with its position advanced, and the rest of it is written
+ * by the next call.
+ * <p>
+ * The sink must only be used from the consumer thread.
+ */
+public class QBufferSink {
+
+    private final QBufferConsumer<ByteBuffer> consumer;
+    private final GatheringByteChannel channel;
+
+    // reused for every write
+    private final ByteBuffer[] buffers;
+
+    /**
+     * Constructs a QBufferSink that writes the items taken from the given consumer to the given channel.
+     *
+     * @param consumer the consumer side of the queue to drain
+     * @param channel the channel to write to
+     */
+    public QBufferSink(final QBufferConsumer<ByteBuffer> consumer, final GatheringByteChannel channel) {
+        this.consumer = consumer;
+        this.channel = channel;
+        buffers = new ByteBuffer[consumer.batchSize()];
+    }
+
+    /**
+     * Writes the next batch of items to the channel and commits the items that were completely written.
+     *
+     * @return the number of bytes written, or -1 when the queue is empty and inactive
+     *
+     * @throws IOException if the write fails
+     */
+    public long drain() throws IOException {
+        final long count = consumer.begin();
+        if (count <= 0) return count;
+
+        final int n = (int) count;
+        for (int x = 0; x < n; x++) {
+            buffers[x] = consumer.peek(x);
+        }
+
+        final long written = channel.write(buffers, 0, n);
+
+        // the channel writes the buffers in order, so the completed items are at the front
+        int completed = 0;
+        while (completed < n && !buffers[completed].hasRemaining()) {
+            completed++;
+        }
+
+        // don't hold on to buffers the producer may reuse
+        Arrays.fill(buffers, 0, n, null);
+
+        if (completed > 0) {
+            consumer.skip(completed);
+            consumer.commit();
+        }
+
+        return written;
+    }
+
+    public QBufferConsumer<ByteBuffer> consumer() {
+        return consumer;
+    }
+
+    public GatheringByteChannel channel() {
+        return channel;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.Arrays;
+
+/**
+ * Fills a queue of ByteBuffers from a channel, such as a SocketChannel or FileChannel.
+ * <p>
+ * Each call to fill() reads into as many buffers as the producer's begin() allows with a single scattering read. Every
+ * buffer that received data is flipped and added to the queue.
+ * <p>
+ * The buffers are slices of one direct buffer, one slice per queue slot. A slice is reused once the consumer has
+ * committed the item in its slot, so the consumer must not hold on to a buffer after committing it.
+ * <p>
+ * The source must only be used from the producer thread, and no other items may be added to the queue.
+ */
+public class QBufferSource {
+
+    private final QBufferProducer<ByteBuffer> producer;
+    private final ScatteringByteChannel channel;
+
+    // one buffer per queue slot
+    private final ByteBuffer[] pool;
+    private final int mask;
+
+    // reused for every read
+    private final ByteBuffer[] buffers;
+
+    // the total number of items added to the queue
+    private long ops;
+
+    /**
+     * Constructs a QBufferSource that reads from the given channel into items added by the given producer.
+     *
+     * @param producer the producer side of the queue to fill
+     * @param channel the channel to read from
+     * @param bufferSize the maximum number of bytes held by each item
+     */
+    public QBufferSource(final QBufferProducer<ByteBuffer> producer, final ScatteringByteChannel channel,
+            final int bufferSize) {
+        this.producer = producer;
+        this.channel = channel;
+
+        pool = new ByteBuffer[producer.capacity()];
+        mask = pool.length - 1;
+        buffers = new ByteBuffer[producer.batchSize()];
+
+        final ByteBuffer memory = ByteBuffer.allocateDirect(pool.length * bufferSize);
+        for (int x = 0; x < pool.length; x++) {
+            memory.limit((x + 1) * bufferSize).position(x * bufferSize);
+            pool[x] = memory.slice();
+        }
+    }
+
+    /**
+     * Reads from the channel into the next batch of items and commits the items that received data.
+     *
+     * @return the number of bytes read, 0 if the queue is full, or -1 at the end of the stream
+     *
+     * @throws IOException if the read fails
+     */
+    public long fill() throws IOException {
+        final long count = producer.begin();
+        if (count <= 0) return 0;
+
+        final int n = (int) count;
+        for (int x = 0; x < n; x++) {
+            final ByteBuffer buffer = pool[(int) ((ops + x) & mask)];
+            buffer.clear();
+            buffers[x] = buffer;
+        }
+
+        final long read = channel.read(buffers, 0, n);
+
+        // the channel fills the buffers in order, so the ones with data are at the front
+        int filled = 0;
+        while (filled < n && buffers[filled].position() > 0) {
+            buffers[filled].flip();
+            producer.produce(buffers[filled]);
+            filled++;
+        }
+
+        Arrays.fill(buffers, 0, n, null);
+
+        if (filled > 0) {
+            ops += filled;
+            producer.commit();
+        }
+
+        return read;
+    }
+
+    public QBufferProducer<ByteBuffer> producer() {
+        return producer;
+    }
+
+    public ScatteringByteChannel channel() {
+        return channel;
+    }
+}
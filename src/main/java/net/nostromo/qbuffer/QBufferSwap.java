@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * QBufferSwap is a single producer single consumer queue that hands over whole arrays rather than individual slots.
+ * <p>
+ * The producer fills an array that only it can see, without any memory barriers, and commit() publishes the whole
+ * array to the consumer in one step. The consumer works through the array and its commit() hands the array back to
+ * the producer once every item in it has been consumed. The arrays are passed back and forth through two small
+ * QBuffers.
+ * <p>
+ * This suits bulk transfers where the consumer always drains everything available. Each commit publishes a whole
+ * array, so the producer should fill an array before committing it.
+ *
+ * @param <E> the type of items held in this queue
+ */
+public class QBufferSwap<E> {
+
+    // an array of items and the number of them in use
+    static final class Slab<E> {
+        final E[] items;
+        int size;
+
+        @SuppressWarnings("unchecked")
+        Slab(final int capacity) {
+            items = (E[]) new Object[capacity];
+        }
+    }
+
+    private final QBufferSwapProducer<E> producer;
+    private final QBufferSwapConsumer<E> consumer;
+
+    /**
+     * Constructs a QBufferSwap with the given number of arrays, each with the given capacity.
+     *
+     * @param arrayCount the number of arrays, at least 2
+     * @param arrayCapacity the maximum number of items in each array
+     */
+    public QBufferSwap(final int arrayCount, final int arrayCapacity) {
+        if (arrayCount < 2) throw new IllegalArgumentException("arrayCount must be at least 2: " + arrayCount);
+
+        // the queues can hold every array, so the slab producers never have to wait for space
+        final QBuffer<Slab<E>> full = new QBuffer<>(arrayCount, 1);
+        final QBuffer<Slab<E>> empty = new QBuffer<>(arrayCount, arrayCount);
+
+        final QBufferProducer<Slab<E>> emptyProducer = empty.producer();
+        emptyProducer.begin();
+        for (int x = 0; x < arrayCount; x++) {
+            emptyProducer.produce(new Slab<E>(arrayCapacity));
+        }
+        emptyProducer.commit();
+
+        producer = new QBufferSwapProducer<>(full.producer(), empty.consumer(), arrayCapacity);
+        consumer = new QBufferSwapConsumer<>(full.consumer(), emptyProducer);
+    }
+
+    /**
+     * Returns the Producer side object of the queue.
+     *
+     * @return the QBufferSwapProducer for this queue
+     */
+    public QBufferSwapProducer<E> producer() {
+        return producer;
+    }
+
+    /**
+     * Returns the Consumer side object of the queue.
+     *
+     * @return the QBufferSwapConsumer for this queue
+     */
+    public QBufferSwapConsumer<E> consumer() {
+        return consumer;
+    }
+}
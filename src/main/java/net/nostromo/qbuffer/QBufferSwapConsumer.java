@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * The consumer side object of the QBufferSwap queue.
+ *
+ * @param <E> the type of items held in this queue
+ */
+public class QBufferSwapConsumer<E> {
+
+    private final QBufferConsumer<QBufferSwap.Slab<E>> full;
+    private final QBufferProducer<QBufferSwap.Slab<E>> empty;
+
+    // the array being consumed, null until begin() takes a full one
+    private QBufferSwap.Slab<E> current;
+    private int position;
+    private int committed;
+
+    QBufferSwapConsumer(final QBufferConsumer<QBufferSwap.Slab<E>> full,
+            final QBufferProducer<QBufferSwap.Slab<E>> empty) {
+        this.full = full;
+        this.empty = empty;
+    }
+
+    /**
+     * Takes the next full array if needed and returns the number of items left in it.
+     *
+     * @return the number of items that can be removed, or -1 when the queue is empty and inactive
+     */
+    public long begin() {
+        if (current == null) {
+            final long count = full.begin();
+            if (count <= 0) return count;
+
+            current = full.consume();
+            full.commit();
+        }
+
+        return current.size - position;
+    }
+
+    /**
+     * Returns the next item in the current array.
+     *
+     * @return the next item in the current array
+     */
+    public E consume() {
+        return current.items[position++];
+    }
+
+    /**
+     * Commits the items consumed since the last commit, and hands the current array back to the producer once every
+     * item in it has been consumed.
+     *
+     * @return the number of items committed
+     */
+    public long commit() {
+        if (current == null) return 0;
+
+        final long count = position - committed;
+        committed = position;
+
+        if (position == current.size) {
+            current.size = 0;
+
+            // there's always room, the queue can hold every array
+            empty.begin();
+            empty.produce(current);
+            empty.commit();
+
+            current = null;
+            position = 0;
+            committed = 0;
+        }
+
+        return count;
+    }
+
+    public boolean isActive() {
+        return full.isActive();
+    }
+
+    // both queues are kept in the same state, so the pair acts like a single QBuffer
+    public boolean activate() {
+        final boolean fullActivated = full.activate();
+        final boolean emptyActivated = empty.activate();
+        return fullActivated || emptyActivated;
+    }
+
+    public boolean deactivate() {
+        final boolean fullDeactivated = full.deactivate();
+        final boolean emptyDeactivated = empty.deactivate();
+        return fullDeactivated || emptyDeactivated;
+    }
+}
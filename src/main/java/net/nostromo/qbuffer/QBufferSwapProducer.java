@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+/**
+ * The producer side object of the QBufferSwap queue.
+ *
+ * @param <E> the type of items held in this queue
+ */
+public class QBufferSwapProducer<E> {
+
+    private final QBufferProducer<QBufferSwap.Slab<E>> full;
+    private final QBufferConsumer<QBufferSwap.Slab<E>> empty;
+    private final int arrayCapacity;
+
+    // the array being filled, null until begin() takes an empty one
+    private QBufferSwap.Slab<E> current;
+
+    QBufferSwapProducer(final QBufferProducer<QBufferSwap.Slab<E>> full,
+            final QBufferConsumer<QBufferSwap.Slab<E>> empty, final int arrayCapacity) {
+        this.full = full;
+        this.empty = empty;
+        this.arrayCapacity = arrayCapacity;
+    }
+
+    /**
+     * Takes an empty array if needed and returns the room left in it.
+     *
+     * @return the number of items that can be added before the next commit, 0 if every array is with the consumer, or
+     * -1 if the consumer is inactive and every array is with it
+     */
+    public long begin() {
+        if (current == null) {
+            final long count = empty.begin();
+            if (count <= 0) return count;
+
+            current = empty.consume();
+            empty.commit();
+        }
+
+        return current.items.length - current.size;
+    }
+
+    /**
+     * Add an item to the end of the current array.
+     *
+     * @param e the item to be added
+     */
+    public void produce(final E e) {
+        current.items[current.size++] = e;
+    }
+
+    /**
+     * Publishes the current array to the consumer.
+     *
+     * @return the number of items published
+     */
+    public long commit() {
+        if (current == null || current.size == 0) return 0;
+
+        final int count = current.size;
+
+        // there's always room, the queue can hold every array
+        full.begin();
+        full.produce(current);
+        full.commit();
+        current = null;
+
+        return count;
+    }
+
+    public boolean isActive() {
+        return full.isActive();
+    }
+
+    // both queues are kept in the same state, so the pair acts like a single QBuffer
+    public boolean activate() {
+        final boolean fullActivated = full.activate();
+        final boolean emptyActivated = empty.activate();
+        return fullActivated || emptyActivated;
+    }
+
+    public boolean deactivate() {
+        final boolean fullDeactivated = full.deactivate();
+        final boolean emptyDeactivated = empty.deactivate();
+        return fullDeactivated || emptyDeactivated;
+    }
+
+    public int arrayCapacity() {
+        return arrayCapacity;
+    }
+}
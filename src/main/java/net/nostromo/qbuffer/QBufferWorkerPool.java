@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.nostromo.qbuffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * QBufferWorkerPool applies a function to the items from one queue on several worker threads and adds the results
+ * to another queue in the original order.
+ * <p>
+ * A coordinating thread calls process() in a loop. Each batch returned by the input consumer's begin() is copied into
+ * a ring of slots and handed to a worker by its batch number: worker w takes batches w, w + M, w + 2M and so on. A
+ * worker replaces each item in its batch's slots with the function's result, then marks the batch done. The
+ * coordinator adds the results of done batches to the output producer strictly in batch order, so the ring acts as a
+ * reorder buffer and the output keeps the input order.
+ * <p>
+ * Batches are published to the workers with a single volatile write and marked done with a single ordered write per
+ * batch, so there are no locks. The coordinator is the only user of the input consumer and the output producer.
+ * <p>
+ * If the function throws, the worker records the exception and exits, and the next process() call throws an
+ * IllegalStateException with the exception as its cause. process() also throws once the pool has been stopped, since
+ * batches still being worked on would never be done.
+ *
+ * @param <I> the type of items in the input queue
+ * @param <O> the type of items in the output queue
+ */
+public class QBufferWorkerPool<I, O> {
+
+    private final QBufferConsumer<I> input;
+    private final QBufferProducer<O> output;
+    private final Function<? super I, ? extends O> function;
+
+    // inputs, replaced in place by their results
+    private final Object[] slots;
+    private final int mask;
+
+    // the first and last + 1 sequence of each batch, indexed by batch number
+    private final long[] batchStart;
+    private final long[] batchEnd;
+
+    // batch b is done when done[b & mask] == b + 1
+    private final AtomicLongArray done;
+
+    // the number of batches handed to the workers, written only by the coordinator
+    private final AtomicLong dispatched = new AtomicLong();
+
+    private final Thread[] workers;
+    private volatile boolean running;
+
+    // the first exception thrown by the function
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // used only by the coordinator thread
+    private long dispatchSeq;
+    private long publishSeq;
+    private long publishBatch;
+
+    /**
+     * Constructs a QBufferWorkerPool. The workers aren't started until start() is called.
+     *
+     * @param input the consumer side of the input queue
+     * @param output the producer side of the output queue
+     * @param function the function applied to each item, called concurrently from the worker threads
+     * @param workerCount the number of worker threads
+     * @param capacity the maximum number of items being worked on or waiting to be added to the output queue
+     */
+    public QBufferWorkerPool(final QBufferConsumer<I> input, final QBufferProducer<O> output,
+            final Function<? super I, ? extends O> function, final int workerCount, final int capacity) {
+        this.input = input;
+        this.output = output;
+        this.function = function;
+
+        // every batch has at least one item, so there are never more batches than slots
+        slots = new Object[QBuffer.nextPowerOf2(capacity)];
+        mask = slots.length - 1;
+        batchStart = new long[slots.length];
+        batchEnd = new long[slots.length];
+        done = new AtomicLongArray(slots.length);
+
+        workers = new Thread[workerCount];
+        for (int x = 0; x < workerCount; x++) {
+            workers[x] = new Thread(new Worker(x), "qbuffer-worker-" + x);
+            workers[x].setDaemon(true);
+        }
+    }
+
+    public void start() {
+        running = true;
+        for (final Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops the workers and waits for them to finish. Batches that haven't been worked on are left unfinished, and
+     * process() throws from then on.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    public int workerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Adds the results of done batches to the output queue, then hands the next batch from the input queue to the
+     * workers. This must only be called from the coordinating thread.
+     *
+     * @return the number of results added to the output queue, or -1 when the input queue is empty and inactive and
+     * every result has been added
+     *
+     * @throws IllegalStateException if a worker has failed or the pool isn't running
+     */
+    public long process() {
+        final Throwable ex = failure.get();
+        if (ex != null) throw new IllegalStateException("worker failed", ex);
+        if (!running) throw new IllegalStateException("worker pool is not running");
+
+        final long published = publish();
+        final long taken = dispatch();
+
+        if (published == 0 && taken == -1 && publishSeq == dispatchSeq) return -1;
+        return published;
+    }
+
+    // adds the results of done batches to the output queue, in order
+    @SuppressWarnings("unchecked")
+    private long publish() {
+        final long count = dispatched.get();
+        if (publishBatch == count || done.get((int) (publishBatch & mask)) != publishBatch + 1) return 0;
+
+        // the room in the output queue can only be claimed once per commit
+        long room = output.begin();
+        long published = 0;
+
+        while (room > 0 && publishBatch < count && done.get((int) (publishBatch & mask)) == publishBatch + 1) {
+            final long end = batchEnd[(int) (publishBatch & mask)];
+
+            final long n = Math.min(room, end - publishSeq);
+            for (long x = 0; x < n; x++) {
+                final int slot = (int) (publishSeq++ & mask);
+                output.produce((O) slots[slot]);
+                slots[slot] = null;
+            }
+            room -= n;
+            published += n;
+
+            if (publishSeq == end) publishBatch++;
+        }
+
+        if (published > 0) output.commit();
+        return published;
+    }
+
+    // copies the next batch from the input queue into the slots and hands it to the workers
+    private long dispatch() {
+        final long free = slots.length - (dispatchSeq - publishSeq);
+        if (free == 0) return 0;
+
+        final long s = input.begin();
+        if (s <= 0) return s;
+
+        final long n = Math.min(s, free);
+        final long start = dispatchSeq;
+        for (long x = 0; x < n; x++) {
+            slots[(int) (dispatchSeq++ & mask)] = input.consume();
+        }
+        input.commit();
+
+        final long batch = dispatched.get();
+        final int idx = (int) (batch & mask);
+        batchStart[idx] = start;
+        batchEnd[idx] = dispatchSeq;
+
+        // publishes the slots and the batch bounds to the workers
+        dispatched.set(batch + 1);
+        return n;
+    }
+
+    private final class Worker implements Runnable {
+
+        private final int id;
+
+        Worker(final int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+            try {
+                work();
+            } catch (Throwable ex) {
+                // the batch is never marked done, so process() reports the failure instead of waiting on it
+                failure.compareAndSet(null, ex);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void work() {
+            long batch = id;
+
+            while (running) {
+                if (batch >= dispatched.get()) {
+                    Thread.yield();
+                    continue;
+                }
+
+                final int idx = (int) (batch & mask);
+                final long end = batchEnd[idx];
+                for (long seq = batchStart[idx]; seq < end; seq++) {
+                    final int slot = (int) (seq & mask);
+                    slots[slot] = function.apply((I) slots[slot]);
+                }
+
+                // publishes the results to the coordinator
+                done.lazySet(idx, batch + 1);
+                batch += workers.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package qbuffer;
+
+import net.nostromo.qbuffer.QBuffer;
+import net.nostromo.qbuffer.QBufferCompact;
+
+// qbuffer memory footprint test
+//
+// Creates a large number of small queues and reports the heap used per queue, both at rest and with an item in
+// every queue.  Run with a fixed heap size (e.g. -Xms2g -Xmx2g) for stable numbers.
+public class FootprintTest {
+
+    private final int queueCount;
+    private final int capacity;
+    private final int batchSize;
+
+    public FootprintTest(final int queueCount, final int capacity, final int batchSize) {
+        this.queueCount = queueCount;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+
+        System.out.format("queues: %,d - capacity: %,d - batch: %,d%n", queueCount, capacity, batchSize);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int queueCount = 200_000;
+        final int[] capacities = { 16, 256 };
+
+        for (int capacity : capacities) {
+            final FootprintTest test = new FootprintTest(queueCount, capacity, capacity);
+            test.qbufferTest();
+            test.compactTest();
+        }
+    }
+
+    private void qbufferTest() {
+        final long base = usedMemory();
+
+        @SuppressWarnings("unchecked")
+        final QBuffer<String>[] queues = new QBuffer[queueCount];
+        for (int x = 0; x < queueCount; x++) {
+            queues[x] = new QBuffer<>(capacity, batchSize);
+        }
+        stats("qbuffer-rest", base);
+
+        for (final QBuffer<String> queue : queues) {
+            queue.producer().begin();
+            queue.producer().produce("hey");
+            queue.producer().commit();
+        }
+        stats("qbuffer-load", base);
+
+        keep(queues);
+    }
+
+    private void compactTest() {
+        final long base = usedMemory();
+
+        @SuppressWarnings("unchecked")
+        final QBufferCompact<String>[] queues = new QBufferCompact[queueCount];
+        for (int x = 0; x < queueCount; x++) {
+            queues[x] = new QBufferCompact<>(capacity, batchSize);
+        }
+        stats("compact-rest", base);
+
+        for (final QBufferCompact<String> queue : queues) {
+            queue.beginProduce();
+            queue.produce("hey");
+            queue.commitProduce();
+        }
+        stats("compact-load", base);
+
+        for (final QBufferCompact<String> queue : queues) {
+            queue.beginConsume();
+            queue.consume();
+            queue.commitConsume();
+            queue.trim();
+        }
+        stats("compact-trim", base);
+
+        keep(queues);
+    }
+
+    // print the heap used per queue, including the array of queues
+    private void stats(final String name, final long base) {
+        final long used = usedMemory() - base;
+        System.out.format("%15s -> total: %,13d bytes - per queue: %,7.1f bytes%n", name, used,
+                (double) used / queueCount);
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+
+        long used = Long.MAX_VALUE;
+        for (int x = 0; x < 5; x++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        return used;
+    }
+
+    // keeps the queues reachable until they've been measured
+    private static void keep(final Object[] queues) {
+        if (queues.length == -1) System.out.println(queues[0]);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package qbuffer;
+
+import net.nostromo.qbuffer.QBuffer;
+import net.nostromo.qbuffer.QBufferConsumer;
+import net.nostromo.qbuffer.QBufferParticipant;
+import net.nostromo.qbuffer.QBufferProducer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+
+// qbuffer latency tests at a fixed input rate
+//
+// The producer sends items on a fixed schedule and stamps each item with the time it *should* have been sent.
+// The consumer records (now - intended send time), so any time the producer spends stalled on a full queue, or the
+// consumer spends stalled on anything, shows up in the results instead of being silently omitted.  This is the
+// usual correction for coordinated omission.
+public class LatencyTest {
+
+    private enum CommitMode {
+        SET, LAZY_SET, LAZY_SET_MIX
+    }
+
+    // the item sent through the queue, pooled so the producer doesn't allocate
+    private static final class Event {
+        long intended;
+    }
+
+    private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9, 99.99 };
+
+    private final long rate;
+    private final long operations;
+    private final int capacity;
+    private final int batchSize;
+    private final CommitMode mode;
+
+    public LatencyTest(final long rate, final long operations, final int capacity, final int batchSize,
+            final CommitMode mode) {
+        this.rate = rate;
+        this.operations = operations;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.mode = mode;
+
+        System.out.format("rate: %,d/s - ops: %,d - batch: %,d - mode: %s%n", rate, operations, batchSize, mode);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int warmupRuns = 1;
+        final int seconds = 5;
+        final int batchSizeMultiplyer = 100;
+
+        final long[] rates = { 100_000, 1_000_000, 10_000_000 };
+        final int[] batchSizes = { 1, 10, 100, 1_000 };
+
+        // save the percentiles for possible graphing
+        final File file = new File("graph/latency_tmp.dat");
+        final PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+
+        // execute warmups?
+        if (warmupRuns > 0) System.out.println("executing warmups");
+
+        for (int x = 0; x < warmupRuns; x++) {
+            final LatencyTest test = new LatencyTest(1_000_000, 1_000_000, 10_000, 100, CommitMode.LAZY_SET_MIX);
+            test.qbufferLatencyTest();
+        }
+
+        System.out.println("starting latency runs");
+
+        // one gnuplot data block per commit mode and rate, one row per batch size
+        for (final CommitMode mode : CommitMode.values()) {
+            for (final long rate : rates) {
+                writer.printf("\"%s %,d/s\" p50 p90 p99 p99.9 p99.99 max%n", mode, rate);
+
+                for (final int batchSize : batchSizes) {
+                    final int capacity = batchSize * batchSizeMultiplyer;
+                    final LatencyTest test = new LatencyTest(rate, rate * seconds, capacity, batchSize, mode);
+                    final Histogram histogram = test.qbufferLatencyTest();
+
+                    histogram.print();
+
+                    writer.printf("%d ", batchSize);
+                    for (final double percentile : PERCENTILES) {
+                        writer.printf("%d ", histogram.percentile(percentile));
+                    }
+                    writer.printf("%d%n", histogram.max());
+                    writer.flush();
+                }
+
+                writer.printf("%n%n");
+            }
+        }
+
+        writer.close();
+    }
+
+    // qbuffer latency test with a producer sending at a fixed rate
+    private Histogram qbufferLatencyTest() throws Exception {
+        final QBuffer<Event> queue = new QBuffer<>(capacity, batchSize);
+
+        // one event per slot; a slot (and its event) is only reused after the consumer has committed it
+        final Event[] events = new Event[queue.producer().capacity()];
+        for (int x = 0; x < events.length; x++) {
+            events[x] = new Event();
+        }
+
+        final Histogram histogram = new Histogram();
+        final long interval = 1_000_000_000L / rate;
+        final int mask = events.length - 1;
+
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(2);
+
+        // the schedule starts slightly in the future so both threads are running by then
+        final long[] startTime = new long[1];
+
+        new Thread(new Runnable() {
+            private final QBufferConsumer<Event> consumer = queue.consumer();
+            private long cnt;
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    while (cnt < operations) {
+                        process();
+                    }
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            private void process() {
+                final long s = consumer.begin();
+                if (s == 0) {
+                    Thread.yield();
+                    return;
+                }
+
+                for (int y = 0; y < s; y++) {
+                    final Event event = consumer.consume();
+                    histogram.record(System.nanoTime() - event.intended);
+                }
+
+                cnt += commit(consumer);
+            }
+        }).start();
+
+        new Thread(new Runnable() {
+            private final QBufferProducer<Event> producer = queue.producer();
+            private long cnt;
+            private long start;
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    start = startTime[0];
+                    while (cnt < operations) {
+                        process();
+                    }
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            private void process() {
+                // how many items should have been sent by now?
+                final long elapsed = System.nanoTime() - start;
+                final long due = (elapsed < 0) ? 0 : Math.min(elapsed / interval + 1, operations) - cnt;
+                if (due <= 0) {
+                    Thread.yield();
+                    return;
+                }
+
+                final long s = producer.begin();
+                if (s == 0) {
+                    Thread.yield();
+                    return;
+                }
+
+                final long count = Math.min(s, due);
+                for (long y = 0; y < count; y++) {
+                    final long seq = cnt + y;
+                    final Event event = events[(int) (seq & mask)];
+                    // stamp the intended send time, not the actual one
+                    event.intended = start + seq * interval;
+                    producer.produce(event);
+                }
+
+                cnt += commit(producer);
+            }
+        }).start();
+
+        startTime[0] = System.nanoTime() + 10_000_000L;
+        startGate.countDown();
+        endGate.await();
+
+        return histogram;
+    }
+
+    private long commit(final QBufferParticipant<Event> participant) {
+        switch (mode) {
+            case LAZY_SET:
+                return participant.lazyCommit();
+            case LAZY_SET_MIX:
+                return participant.lazyMixCommit();
+            default:
+                return participant.commit();
+        }
+    }
+
+    // A simplified HDR style histogram.
+    //
+    // Values below 2048 are recorded exactly.  Above that, each power of 2 range is split into 1024 linear sub
+    // buckets, which keeps the relative error under 0.1% for any recorded value.  Only the consumer thread records.
+    private static final class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 10;
+        private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+        private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + SUB_BUCKET_COUNT];
+        private long total;
+        private long max;
+
+        void record(final long value) {
+            final long v = Math.max(value, 0);
+            counts[index(v)]++;
+            total++;
+            if (v > max) max = v;
+        }
+
+        long max() {
+            return max;
+        }
+
+        // returns the highest value equivalent to the given percentile's bucket
+        long percentile(final double percentile) {
+            final long target = Math.max(1, (long) Math.ceil(total * (percentile / 100.0)));
+
+            long cnt = 0;
+            for (int idx = 0; idx < counts.length; idx++) {
+                cnt += counts[idx];
+                if (cnt >= target) return Math.min(value(idx + 1) - 1, max);
+            }
+
+            return max;
+        }
+
+        void print() {
+            System.out.format("%15s -> ", "latency");
+            for (final double percentile : PERCENTILES) {
+                System.out.format("p%s: %,d ns - ", percentile, percentile(percentile));
+            }
+            System.out.format("max: %,d ns%n", max);
+        }
+
+        private static int index(final long value) {
+            final int bucket = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1);
+            return (bucket << SUB_BUCKET_BITS) + (int) (value >>> bucket);
+        }
+
+        private static long value(final int index) {
+            if (index < 2 * SUB_BUCKET_COUNT) return index;
+
+            final int bucket = (index >> SUB_BUCKET_BITS) - 1;
+            return (long) (index - (bucket << SUB_BUCKET_BITS)) << bucket;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package qbuffer;
+
+import net.nostromo.qbuffer.QBuffer;
+import net.nostromo.qbuffer.QBufferHandler;
+import net.nostromo.qbuffer.QBufferMailbox;
+import net.nostromo.qbuffer.QBufferProducer;
+import net.nostromo.qbuffer.QBufferScheduler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// qbuffer mailbox scheduler perf test and unit test
+//
+// A single producer thread adds an incrementing long value to many mailboxes in turn.  Each mailbox handler verifies
+// the incrementing value, so lost, duplicated, reordered or concurrently handled items are detected.  Handler errors
+// are reported through the scheduler and fail the test.
+public class MailboxTest {
+
+    private final long operations;
+    private final int mailboxCount;
+    private final int capacity;
+    private final int batchSize;
+
+    public MailboxTest(final long operations, final int mailboxCount, final int capacity, final int batchSize) {
+        this.operations = operations;
+        this.mailboxCount = mailboxCount;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+
+        System.out.format("ops: %,d - mailboxes: %,d - batch: %,d%n", operations, mailboxCount, batchSize);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final long operations = 10_000_000L;
+        final int iterations = 3;
+        final int batchSizeMultiplyer = 10;
+
+        final int[] mailboxCounts = { 10, 1_000, 100_000 };
+        final int[] batchSizes = { 1, 10, 100 };
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final QBufferScheduler scheduler = new QBufferScheduler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(final Thread thread, final Throwable ex) {
+                error.compareAndSet(null, ex);
+            }
+        });
+
+        for (int mailboxCount : mailboxCounts) {
+            for (int batchSize : batchSizes) {
+                final MailboxTest test =
+                        new MailboxTest(operations, mailboxCount, batchSize * batchSizeMultiplyer, batchSize);
+
+                for (int iteration = 0; iteration < iterations; iteration++) {
+                    test.mailboxTest(scheduler, error, false);
+                    test.mailboxTest(scheduler, error, true);
+                }
+            }
+        }
+
+        scheduler.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mailboxTest(final QBufferScheduler scheduler, final AtomicReference<Throwable> error,
+            final boolean lazy) throws Exception {
+        final long perMailbox = operations / mailboxCount;
+        final CountDownLatch endGate = new CountDownLatch(mailboxCount);
+
+        final QBufferMailbox<Long>[] mailboxes = new QBufferMailbox[mailboxCount];
+        for (int n = 0; n < mailboxCount; n++) {
+            mailboxes[n] = scheduler.register(new QBuffer<Long>(capacity, batchSize), new QBufferHandler<Long>() {
+                private long cnt;
+
+                @Override
+                public void handle(final Long value) {
+                    if (value != cnt) {
+                        throw new IllegalStateException(value + " != " + cnt);
+                    }
+                    if (++cnt == perMailbox) endGate.countDown();
+                }
+            });
+        }
+
+        final long[] cnts = new long[mailboxCount];
+
+        final long start = System.nanoTime();
+
+        // the producer runs on this thread
+        int completed = 0;
+        for (long loops = 0; completed < mailboxCount; loops++) {
+            final int idx = (int) (loops % mailboxCount);
+            long cnt = cnts[idx];
+            if (cnt == -1) continue;
+
+            if (cnt >= perMailbox) {
+                cnts[idx] = -1;
+                completed++;
+                continue;
+            }
+
+            final QBufferMailbox<Long> mailbox = mailboxes[idx];
+            final QBufferProducer<Long> producer = mailbox.producer();
+
+            final long s = Math.min(producer.begin(), perMailbox - cnt);
+            for (int y = 0; y < s; y++) {
+                producer.produce(cnt++);
+            }
+
+            if (lazy) mailbox.lazyCommit();
+            else mailbox.commit();
+            cnts[idx] = cnt;
+        }
+
+        while (!endGate.await(100, TimeUnit.MILLISECONDS)) {
+            if (error.get() != null) throw new IllegalStateException("mailbox handler failed", error.get());
+        }
+        final long stop = System.nanoTime();
+
+        final long total = perMailbox * mailboxCount;
+        System.out.format("%15s -> ops/sec: %,11.0f - avg: %5.2f ns%n", (lazy ? "lazy-" : "mailbox-") + mailboxCount,
+                (total / (double) (stop - start)) * 1_000_000_000, (double) (stop - start) / total);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package qbuffer;
+
+import net.nostromo.qbuffer.QBuffer;
+import net.nostromo.qbuffer.QBufferConsumer;
+import net.nostromo.qbuffer.QBufferHandler;
+import net.nostromo.qbuffer.QBufferMerger;
+import net.nostromo.qbuffer.QBufferProducer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToLongFunction;
+
+// qbuffer merger perf test and unit test
+//
+// Each producer adds increasing timestamps, with random gaps, to its own queue.  The merged output is verified to be
+// in timestamp order and complete.  A source that stays silent must only hold up the merge until the timeout, and its
+// items must still be emitted when they arrive late.
+public class MergeTest {
+
+    private final long operations;
+    private final int capacity;
+    private final int batchSize;
+
+    public MergeTest(final long operations, final int capacity, final int batchSize) {
+        this.operations = operations;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+
+        System.out.format("ops: %,d - batch: %,d%n", operations, batchSize);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final long operations = 20_000_000L;
+        final int iterations = 3;
+        final int batchSizeMultiplyer = 100;
+
+        final int[] batchSizes = { 1, 10, 100, 1_000 };
+        final int[] sourceCounts = { 2, 4, 8 };
+
+        timeoutTest();
+
+        for (int batchSize : batchSizes) {
+            final MergeTest test = new MergeTest(operations, batchSize * batchSizeMultiplyer, batchSize);
+
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                for (int sourceCount : sourceCounts) {
+                    test.mergeTest(sourceCount);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void timeoutTest() {
+        final int count = 1_000;
+        final int lateCount = 10;
+        final long timeoutNanos = 10_000_000L;
+
+        final QBuffer<Long> busy = new QBuffer<>(count, 100);
+        final QBuffer<Long> silent = new QBuffer<>(lateCount, 10);
+
+        // the busy source is filled and closed up front, the silent one stays open and empty
+        final QBufferProducer<Long> producer = busy.producer();
+        for (long cnt = 0; cnt < count; ) {
+            final long s = producer.begin();
+            for (int y = 0; y < s; y++) {
+                producer.produce(cnt++ + lateCount);
+            }
+            producer.commit();
+        }
+        producer.deactivate();
+
+        final QBufferMerger<Long> merger =
+                new QBufferMerger<>(new QBufferConsumer[] { busy.consumer(), silent.consumer() },
+                        new ToLongFunction<Long>() {
+                            @Override
+                            public long applyAsLong(final Long value) {
+                                return value;
+                            }
+                        }, timeoutNanos);
+
+        final long[] received = new long[count + lateCount];
+        final QBufferHandler<Long> recorder = new QBufferHandler<Long>() {
+            private int cnt;
+
+            @Override
+            public void handle(final Long value) {
+                received[cnt++] = value;
+            }
+        };
+
+        // the merge is held up until the timeout, then carries on without the silent source
+        final long start = System.nanoTime();
+        long cnt = 0;
+        while (cnt < count) {
+            if (System.nanoTime() - start > 100 * timeoutNanos) {
+                throw new IllegalStateException("merge held up by a silent source: " + cnt + " < " + count);
+            }
+            cnt += merger.merge(recorder);
+        }
+        final long held = System.nanoTime() - start;
+        if (held < timeoutNanos) throw new IllegalStateException("merge wasn't held up: " + held + " ns");
+
+        // the late items have lower keys than everything emitted so far
+        final QBufferProducer<Long> late = silent.producer();
+        late.begin();
+        for (long y = 0; y < lateCount; y++) {
+            late.produce(y);
+        }
+        late.commit();
+        late.deactivate();
+
+        long s;
+        while ((s = merger.merge(recorder)) != -1) {
+            cnt += s;
+        }
+
+        if (cnt != count + lateCount) throw new IllegalStateException(cnt + " != " + (count + lateCount));
+        for (int y = 0; y < lateCount; y++) {
+            if (received[count + y] != y) throw new IllegalStateException(received[count + y] + " != " + y);
+        }
+
+        System.out.format("%15s -> held up: %,d ns - late items: %,d%n", "timeout", held, lateCount);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mergeTest(final int sourceCount) throws Exception {
+        final long perSource = operations / sourceCount;
+
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(sourceCount);
+
+        final QBufferConsumer<Long>[] consumers = new QBufferConsumer[sourceCount];
+
+        for (int n = 0; n < sourceCount; n++) {
+            final QBuffer<Long> queue = new QBuffer<>(capacity, batchSize);
+            consumers[n] = queue.consumer();
+
+            new Thread(new Runnable() {
+                private final QBufferProducer<Long> producer = queue.producer();
+                private long cnt;
+                private long timestamp;
+
+                @Override
+                public void run() {
+                    try {
+                        startGate.await();
+                        while (cnt < perSource) {
+                            process();
+                        }
+                        producer.deactivate();
+                        endGate.countDown();
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+
+                private void process() {
+                    final long s = Math.min(producer.begin(), perSource - cnt);
+                    if (s == 0) {
+                        Thread.yield();
+                        return;
+                    }
+
+                    for (int y = 0; y < s; y++) {
+                        timestamp += ThreadLocalRandom.current().nextInt(sourceCount * 2);
+                        producer.produce(timestamp);
+                    }
+
+                    cnt += producer.lazyMixCommit();
+                }
+            }).start();
+        }
+
+        final QBufferMerger<Long> merger = new QBufferMerger<>(consumers, new ToLongFunction<Long>() {
+            @Override
+            public long applyAsLong(final Long value) {
+                return value;
+            }
+        }, Long.MAX_VALUE);
+
+        final QBufferHandler<Long> verifier = new QBufferHandler<Long>() {
+            private long last;
+
+            @Override
+            public void handle(final Long value) {
+                if (value < last) {
+                    throw new IllegalStateException(value + " < " + last);
+                }
+                last = value;
+            }
+        };
+
+        final long start = System.nanoTime();
+        startGate.countDown();
+
+        // the merger runs on this thread
+        long cnt = 0;
+        long s;
+        while ((s = merger.merge(verifier)) != -1) {
+            if (s == 0) Thread.yield();
+            cnt += s;
+        }
+
+        endGate.await();
+        final long stop = System.nanoTime();
+
+        if (cnt != perSource * sourceCount) {
+            throw new IllegalStateException(cnt + " != " + perSource * sourceCount);
+        }
+
+        final long total = perSource * sourceCount;
+        System.out.format("%15s -> ops/sec: %,11.0f - avg: %5.2f ns%n", "merge-" + sourceCount,
+                (total / (double) (stop - start)) * 1_000_000_000, (double) (stop - start) / total);
+    }
+}
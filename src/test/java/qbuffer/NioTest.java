@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package qbuffer;
+
+import net.nostromo.qbuffer.QBuffer;
+import net.nostromo.qbuffer.QBufferConsumer;
+import net.nostromo.qbuffer.QBufferProducer;
+import net.nostromo.qbuffer.QBufferSink;
+import net.nostromo.qbuffer.QBufferSource;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+
+// qbuffer sink/source perf test and unit test over a loopback socket
+//
+// producer -> queue -> QBufferSink -> socket -> QBufferSource -> queue -> consumer
+//
+// The producer writes a rolling byte pattern and the consumer verifies it, so any lost, duplicated or reordered bytes
+// are detected.  The sink's socket is non-blocking, so writes can come up short when the socket buffer is full, and
+// the throttled case caps every write part way through an item so the sink always has to resume a partly written
+// item.
+public class NioTest {
+
+    private final long bytes;
+    private final int capacity;
+    private final int batchSize;
+    private final int itemSize;
+
+    public NioTest(final long bytes, final int capacity, final int batchSize, final int itemSize) {
+        this.bytes = bytes;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.itemSize = itemSize;
+
+        System.out.format("bytes: %,d - batch: %,d - item: %,d%n", bytes, batchSize, itemSize);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final long bytes = 1_000_000_000L;
+        final int iterations = 3;
+        final int batchSizeMultiplyer = 10;
+
+        final int[] batchSizes = { 1, 10, 100 };
+        final int[] itemSizes = { 64, 1_024 };
+
+        for (int itemSize : itemSizes) {
+            for (int batchSize : batchSizes) {
+                final NioTest test = new NioTest(bytes, batchSize * batchSizeMultiplyer, batchSize, itemSize);
+
+                for (int iteration = 0; iteration < iterations; iteration++) {
+                    test.loopbackTest(false);
+                    test.loopbackTest(true);
+                }
+            }
+        }
+    }
+
+    private void loopbackTest(final boolean throttled) throws Exception {
+        final QBuffer<ByteBuffer> outbound = new QBuffer<>(capacity, batchSize);
+        final QBuffer<ByteBuffer> inbound = new QBuffer<>(capacity, batchSize);
+
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        final SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        final SocketChannel accepted = server.accept();
+        server.close();
+
+        client.configureBlocking(false);
+        final GatheringByteChannel sinkChannel =
+                throttled ? new ThrottledChannel(client, (itemSize * 2) / 3 + 1) : client;
+
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(4);
+
+        // producer: fills pooled buffers with a rolling byte pattern
+        new Thread(new Runnable() {
+            private final QBufferProducer<ByteBuffer> producer = outbound.producer();
+            private final ByteBuffer[] pool = new ByteBuffer[producer.capacity()];
+            private long cnt;
+            private long ops;
+
+            @Override
+            public void run() {
+                try {
+                    for (int x = 0; x < pool.length; x++) {
+                        pool[x] = ByteBuffer.allocate(itemSize);
+                    }
+
+                    startGate.await();
+                    while (cnt < bytes) {
+                        process();
+                    }
+                    producer.deactivate();
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            private void process() {
+                final long s = producer.begin();
+                if (s == 0) {
+                    Thread.yield();
+                    return;
+                }
+
+                for (int y = 0; y < s && cnt < bytes; y++) {
+                    // a pooled buffer is free again once the sink has committed its slot
+                    final ByteBuffer buffer = pool[(int) (ops++ & (pool.length - 1))];
+                    buffer.clear();
+                    while (buffer.hasRemaining() && cnt < bytes) {
+                        buffer.put((byte) cnt++);
+                    }
+                    buffer.flip();
+                    producer.produce(buffer);
+                }
+
+                producer.commit();
+            }
+        }).start();
+
+        // sink: drains the outbound queue into the client socket
+        new Thread(new Runnable() {
+            private final QBufferSink sink = new QBufferSink(outbound.consumer(), sinkChannel);
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    long written;
+                    while ((written = sink.drain()) >= 0) {
+                        if (written == 0) Thread.yield();
+                    }
+                    client.close();
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }).start();
+
+        // source: reads the accepted socket into the inbound queue
+        new Thread(new Runnable() {
+            private final QBufferSource source = new QBufferSource(inbound.producer(), accepted, itemSize);
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    long read;
+                    while ((read = source.fill()) >= 0) {
+                        if (read == 0) Thread.yield();
+                    }
+                    source.producer().deactivate();
+                    accepted.close();
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }).start();
+
+        // consumer: verifies the rolling byte pattern
+        new Thread(new Runnable() {
+            private final QBufferConsumer<ByteBuffer> consumer = inbound.consumer();
+            private long cnt;
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    while (process()) {
+                    }
+                    if (cnt != bytes) {
+                        throw new IllegalStateException(cnt + " != " + bytes);
+                    }
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            private boolean process() {
+                final long s = consumer.begin();
+                if (s == -1) return false;
+                if (s == 0) {
+                    Thread.yield();
+                    return true;
+                }
+
+                for (int y = 0; y < s; y++) {
+                    final ByteBuffer buffer = consumer.consume();
+                    while (buffer.hasRemaining()) {
+                        final byte value = buffer.get();
+                        if (value != (byte) cnt) {
+                            throw new IllegalStateException(value + " != " + (byte) cnt + " at " + cnt);
+                        }
+                        cnt++;
+                    }
+                }
+
+                consumer.commit();
+                return true;
+            }
+        }).start();
+
+        final long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        final long stop = System.nanoTime();
+
+        final long nanos = stop - start;
+        System.out.format("%15s -> MB/sec: %,9.0f - avg: %5.2f ns/byte%n", throttled ? "throttled" : "loopback",
+                (bytes / (double) nanos) * 1_000_000_000 / 1_000_000, (double) nanos / bytes);
+    }
+
+    // writes at most max bytes per call, so a gathering write usually stops part way through an item
+    private static final class ThrottledChannel implements GatheringByteChannel {
+
+        private final SocketChannel channel;
+        private final int max;
+
+        ThrottledChannel(final SocketChannel channel, final int max) {
+            this.channel = channel;
+            this.max = max;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            // find the last buffer within max bytes, and how far past max it reaches
+            long budget = max;
+            int end = offset;
+            while (end < offset + length && budget > 0) {
+                budget -= srcs[end++].remaining();
+            }
+
+            // temporarily cut the last buffer short
+            final ByteBuffer last = srcs[end - 1];
+            final int limit = last.limit();
+            if (budget < 0) last.limit((int) (limit + budget));
+
+            try {
+                return channel.write(srcs, offset, end - offset);
+            } finally {
+                last.limit(limit);
+            }
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            return (int) write(new ByteBuffer[] { src }, 0, 1);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
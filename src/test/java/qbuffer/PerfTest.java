@@ -17,8 +17,12 @@
 package qbuffer;
 
 import net.nostromo.qbuffer.QBuffer;
+import net.nostromo.qbuffer.QBufferBatch;
 import net.nostromo.qbuffer.QBufferConsumer;
 import net.nostromo.qbuffer.QBufferProducer;
+import net.nostromo.qbuffer.QBufferSwap;
+import net.nostromo.qbuffer.QBufferSwapConsumer;
+import net.nostromo.qbuffer.QBufferSwapProducer;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -51,6 +55,8 @@ public class PerfTest {
         final boolean runSingle = true;
         final boolean runMulti = false;
         final boolean runUnit = false;
+        final boolean runBatch = false;
+        final boolean runSwap = false;
         final int warmupRuns = 0;
 
         final long operations = 1_000_000_000L;
@@ -58,7 +64,7 @@ public class PerfTest {
         final int arraySize = 100;
         final int batchSizeMultiplyer = 100;
 
-        final int[] baseBatchSizes = { 1, 10, 100, 1_000 };
+        final int[] baseBatchSizes = { 1, 10, 100, 1_000, 10_000 };
         final int[] batchMultipliers = { 1 };
         final int[] queueCounts = { 2, 3 };
 
@@ -78,6 +84,8 @@ public class PerfTest {
             if (runSingle) test.qbufferTest(arraySize);
             if (runMulti) test.qbufferMultipleTest(arraySize, 2);
             if (runUnit) test.qbufferUnitTest();
+            if (runBatch) test.qbufferBatchTest();
+            if (runSwap) test.qbufferSwapTest(arraySize);
         }
 
         System.out.println("starting perf runs");
@@ -98,6 +106,8 @@ public class PerfTest {
                         }
                     }
                     if (runUnit) test.qbufferUnitTest();
+                    if (runBatch) test.qbufferBatchTest();
+                    if (runSwap) test.qbufferSwapTest(arraySize);
                 }
 
                 test.summarize(writer);
@@ -200,6 +210,92 @@ public class PerfTest {
         stats("qbuffer", operations, stop - start);
     }
 
+    // qbuffer swap mode perf test, each array holds batchSize items
+    private void qbufferSwapTest(final int arraySize) throws Exception {
+        final QBufferSwap<String[]> queue = new QBufferSwap<>(capacity / batchSize, batchSize);
+
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(2);
+        final String object = "hey";
+
+        new Thread(new Runnable() {
+            private final QBufferSwapConsumer<String[]> consumer = queue.consumer();
+            private long cnt;
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    while (cnt < operations) {
+                        process();
+                    }
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            private void process() {
+                final long s = consumer.begin();
+                if (s == 0) {
+                    Thread.yield();
+                    return;
+                }
+
+                for (int y = 0; y < s; y++) {
+                    final String[] arr = consumer.consume();
+                    cnt += arr.length;
+                }
+
+                consumer.commit();
+            }
+        }).start();
+
+        new Thread(new Runnable() {
+            private final QBufferSwapProducer<String[]> producer = queue.producer();
+            private long cnt;
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    while (cnt < operations) {
+                        process();
+                    }
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            private void process() {
+                final long s = producer.begin();
+                if (s == 0) {
+                    Thread.yield();
+                    return;
+                }
+
+                for (int y = 0; y < s; y++) {
+                    final String[] arr = new String[arraySize];
+                    for (int z = 0; z < arraySize; z++) {
+                        arr[z] = object;
+                    }
+
+                    producer.produce(arr);
+                }
+
+                cnt += (producer.commit() * arraySize);
+            }
+        }).start();
+
+        final long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        final long stop = System.nanoTime();
+
+        stats("qbuffer-swap", operations, stop - start);
+    }
+
     // qbuffer perf test writing into multiple queues
     @SuppressWarnings("unchecked")
     private void qbufferMultipleTest(final int arraySize, final int queueCount) throws Exception {
@@ -391,6 +487,89 @@ public class PerfTest {
         stats("qbuffer-unit", operations, stop - start);
     }
 
+    // qbuffer batch unit test
+    // producer adds an incrementing long value to the queue,
+    // consumer sums each batch with a parallel stream and verifies the sum
+    private void qbufferBatchTest() throws Exception {
+        final QBuffer<Long> queue = new QBuffer<>(capacity, batchSize);
+
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(2);
+
+        new Thread(new Runnable() {
+            private final QBufferConsumer<Long> consumer = queue.consumer();
+            private long cnt;
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    while (cnt < operations) {
+                        process();
+                    }
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            private void process() {
+                final QBufferBatch<Long> batch = consumer.beginBatch();
+                if (batch.isEmpty()) {
+                    Thread.yield();
+                    return;
+                }
+
+                final long s = batch.size();
+                final long sum = batch.parallelStream().mapToLong(Long::longValue).sum();
+                final long expected = (cnt * 2 + s - 1) * s / 2;
+                if (sum != expected) {
+                    throw new IllegalStateException(sum + " != " + expected);
+                }
+                cnt += consumer.lazyMixCommit();
+            }
+        }).start();
+
+        new Thread(new Runnable() {
+            private final QBufferProducer<Long> producer = queue.producer();
+            private long cnt;
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    while (cnt < operations) {
+                        process();
+                    }
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            private void process() {
+                final long s = producer.begin();
+                if (s == 0) {
+                    Thread.yield();
+                    return;
+                }
+
+                for (int y = 0; y < s; y++) {
+                    producer.produce(cnt);
+                    cnt++;
+                }
+                producer.lazyMixCommit();
+            }
+        }).start();
+
+        final long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        final long stop = System.nanoTime();
+
+        stats("qbuffer-batch", operations, stop - start);
+    }
+
     // jdk queue perf tests
     private void jdkQueueTest(final int arraySize) throws Exception {
         final Queue<String[]> queue = new ArrayBlockingQueue<>(capacity);
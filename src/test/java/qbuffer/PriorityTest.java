@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package qbuffer;
+
+import net.nostromo.qbuffer.QBuffer;
+import net.nostromo.qbuffer.QBufferConsumer;
+import net.nostromo.qbuffer.QBufferPriority;
+import net.nostromo.qbuffer.QBufferPriorityConsumer;
+import net.nostromo.qbuffer.QBufferPriorityProducer;
+import net.nostromo.qbuffer.QBufferProducer;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+// qbuffer priority lane latency test and unit test
+//
+// The producer keeps the bulk lane full and sends a cancel every interval. The consumer burns some cpu on each bulk
+// item and records how long each cancel took to arrive, measured from when it was due to be sent. The single queue
+// case sends the cancels through the same QBuffer as the bulk items, so they wait behind a full queue.
+public class PriorityTest {
+
+    private static final int CANCEL = 0;
+    private static final int BULK = 1;
+
+    private static final class Message {
+        long sent;
+    }
+
+    private static final Message BULK_MESSAGE = new Message();
+
+    private final int cancels;
+    private final long interval;
+    private final int capacity;
+    private final int batchSize;
+    private final int work;
+
+    // cancels are pooled, so only one can be in flight per pool slot
+    private final Message[] pool;
+
+    // folds in the work done on each bulk item, written by the consumer thread and printed once it's done
+    private long checksum;
+
+    public PriorityTest(final int cancels, final long interval, final int capacity, final int batchSize,
+            final int work) {
+        this.cancels = cancels;
+        this.interval = interval;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.work = work;
+
+        pool = new Message[cancels];
+        for (int x = 0; x < cancels; x++) {
+            pool[x] = new Message();
+        }
+
+        System.out.format("cancels: %,d - interval: %,d ns - capacity: %,d - batch: %,d - work: %,d%n", cancels,
+                interval, capacity, batchSize, work);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int cancels = 10_000;
+        final long interval = 50_000;
+        final int iterations = 3;
+        final int work = 100;
+
+        final int[] batchSizes = { 10, 100, 1_000 };
+        final int[] weights = { 16, 256 };
+
+        for (int batchSize : batchSizes) {
+            final PriorityTest test = new PriorityTest(cancels, interval, batchSize * 10, batchSize, work);
+
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                test.singleTest();
+                test.priorityTest("strict", new QBufferPriority<Message>(2, test.capacity, batchSize));
+                test.priorityTest("weighted", new QBufferPriority<Message>(weights, test.capacity, batchSize));
+            }
+        }
+    }
+
+    // cancels and bulk items share one queue
+    private void singleTest() throws Exception {
+        final QBuffer<Message> qbuffer = new QBuffer<>(capacity, batchSize);
+        final QBufferProducer<Message> producer = qbuffer.producer();
+        final QBufferConsumer<Message> consumer = qbuffer.consumer();
+        final long[] latencies = new long[cancels];
+
+        run("single", latencies, new Runnable() {
+            private long next = System.nanoTime();
+            private int sent;
+
+            @Override
+            public void run() {
+                while (sent < cancels) {
+                    final long s = producer.begin();
+                    if (s == 0) {
+                        Thread.yield();
+                        continue;
+                    }
+
+                    for (int y = 0; y < s; y++) {
+                        if (sent < cancels && System.nanoTime() >= next) {
+                            final Message cancel = pool[sent++];
+                            cancel.sent = next;
+                            next += interval;
+                            producer.produce(cancel);
+                        } else {
+                            producer.produce(BULK_MESSAGE);
+                        }
+                    }
+                    producer.commit();
+                }
+                producer.deactivate();
+            }
+        }, new Runnable() {
+            private int received;
+
+            @Override
+            public void run() {
+                long s;
+                while ((s = consumer.begin()) != -1) {
+                    if (s == 0) {
+                        Thread.yield();
+                        continue;
+                    }
+
+                    for (int y = 0; y < s; y++) {
+                        received = receive(consumer.consume(), latencies, received);
+                    }
+                    consumer.commit();
+                }
+                verify(received);
+            }
+        });
+    }
+
+    // cancels and bulk items have their own lanes
+    private void priorityTest(final String name, final QBufferPriority<Message> qbuffer) throws Exception {
+        final QBufferPriorityProducer<Message> producer = qbuffer.producer();
+        final QBufferPriorityConsumer<Message> consumer = qbuffer.consumer();
+        final long[] latencies = new long[cancels];
+
+        run(name, latencies, new Runnable() {
+            private long next = System.nanoTime();
+            private int sent;
+
+            @Override
+            public void run() {
+                while (sent < cancels) {
+                    // send every cancel that's due in one batch, like the single queue case does
+                    if (System.nanoTime() >= next) {
+                        final long c = producer.begin(CANCEL);
+                        int y = 0;
+                        for (; y < c && sent < cancels && System.nanoTime() >= next; y++) {
+                            final Message cancel = pool[sent++];
+                            cancel.sent = next;
+                            next += interval;
+                            producer.produce(cancel);
+                        }
+                        if (y > 0) producer.commit();
+                    }
+
+                    // top up the bulk lane
+                    final long s = producer.begin(BULK);
+                    if (s == 0) {
+                        Thread.yield();
+                        continue;
+                    }
+
+                    for (int y = 0; y < s; y++) {
+                        producer.produce(BULK_MESSAGE);
+                    }
+                    producer.commit();
+                }
+                producer.deactivate();
+            }
+        }, new Runnable() {
+            private int received;
+
+            @Override
+            public void run() {
+                long s;
+                while ((s = consumer.begin()) != -1) {
+                    if (s == 0) {
+                        Thread.yield();
+                        continue;
+                    }
+
+                    for (int y = 0; y < s; y++) {
+                        received = receive(consumer.consume(), latencies, received);
+                    }
+                    consumer.commit();
+                }
+                verify(received);
+            }
+        });
+    }
+
+    private int receive(final Message message, final long[] latencies, final int received) {
+        if (message == BULK_MESSAGE) {
+            checksum = mix(checksum);
+            return received;
+        }
+
+        latencies[received] = System.nanoTime() - message.sent;
+        return received + 1;
+    }
+
+    private void verify(final int received) {
+        if (received != cancels) throw new IllegalStateException(received + " != " + cancels);
+    }
+
+    private void run(final String name, final long[] latencies, final Runnable producer, final Runnable consumer)
+            throws Exception {
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(2);
+
+        for (final Runnable runnable : new Runnable[] { producer, consumer }) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startGate.await();
+                        runnable.run();
+                        endGate.countDown();
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }).start();
+        }
+
+        checksum = 0;
+        startGate.countDown();
+        endGate.await();
+
+        Arrays.sort(latencies);
+        long total = 0;
+        for (final long latency : latencies) {
+            total += latency;
+        }
+
+        // the checksum is printed so the bulk item work can't be optimized away
+        System.out.format("%15s -> cancel avg: %,11.0f ns - p50: %,11d ns - p99: %,11d ns - max: %,11d ns - %x%n",
+                name, (double) total / latencies.length, latencies[latencies.length / 2],
+                latencies[(int) (latencies.length * 0.99)], latencies[latencies.length - 1], checksum);
+    }
+
+    // the per item cost of a bulk item, each round depends on the previous one
+    private long mix(final long value) {
+        long x = value;
+        for (int r = 0; r < work; r++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package qbuffer;
+
+import net.nostromo.qbuffer.QBufferChannel;
+import net.nostromo.qbuffer.QBufferClient;
+import net.nostromo.qbuffer.QBufferRequestHandler;
+import net.nostromo.qbuffer.QBufferResponseHandler;
+import net.nostromo.qbuffer.QBufferServer;
+
+import java.util.concurrent.CountDownLatch;
+
+// qbuffer channel round trip latency and throughput tests
+//
+// The server echoes each request back as its response and the client verifies that every response arrives with the
+// request it belongs to, in sequence order.
+public class RpcTest {
+
+    // distinct request objects, so the client can tell them apart without allocating
+    private static final Long[] REQUESTS = new Long[1 << 16];
+
+    static {
+        for (int x = 0; x < REQUESTS.length; x++) {
+            REQUESTS[x] = (long) x;
+        }
+    }
+
+    private final long operations;
+    private final int capacity;
+    private final int batchSize;
+
+    public RpcTest(final long operations, final int capacity, final int batchSize) {
+        this.operations = operations;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+
+        System.out.format("ops: %,d - batch: %,d%n", operations, batchSize);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final long operations = 100_000_000L;
+        final long roundTrips = 1_000_000L;
+        final int iterations = 5;
+        final int batchSizeMultiplyer = 100;
+
+        final int[] batchSizes = { 1, 10, 100, 1_000 };
+
+        // one request in flight at a time
+        final RpcTest latencyTest = new RpcTest(roundTrips, 100, 1);
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            latencyTest.roundTripTest();
+        }
+
+        // as many requests in flight as the channel can hold
+        for (int batchSize : batchSizes) {
+            final RpcTest test = new RpcTest(operations, batchSize * batchSizeMultiplyer, batchSize);
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                test.throughputTest();
+            }
+        }
+    }
+
+    // the client waits for each response before sending the next request
+    private void roundTripTest() throws Exception {
+        final QBufferChannel<Long, Long> channel = new QBufferChannel<>(capacity, batchSize);
+        final CountDownLatch endGate = new CountDownLatch(2);
+
+        startServer(channel.server(), endGate);
+
+        final QBufferClient<Long, Long> client = channel.client();
+        final Verifier verifier = new Verifier();
+
+        final long start = System.nanoTime();
+        for (long x = 0; x < operations; x++) {
+            while (client.begin() == 0) {
+                Thread.yield();
+            }
+            client.send(REQUESTS[(int) (x & (REQUESTS.length - 1))]);
+            client.commit();
+
+            while (client.receive(verifier) == 0) {
+                Thread.yield();
+            }
+        }
+        final long stop = System.nanoTime();
+
+        client.close();
+        endGate.countDown();
+        endGate.await();
+
+        System.out.format("%15s -> round trips/sec: %,11.0f - avg: %,9.2f ns%n", "round-trip",
+                (operations / (double) (stop - start)) * 1_000_000_000, (double) (stop - start) / operations);
+    }
+
+    // the client keeps the channel full and handles responses in batches
+    private void throughputTest() throws Exception {
+        final QBufferChannel<Long, Long> channel = new QBufferChannel<>(capacity, batchSize);
+        final CountDownLatch endGate = new CountDownLatch(2);
+
+        startServer(channel.server(), endGate);
+
+        final QBufferClient<Long, Long> client = channel.client();
+        final Verifier verifier = new Verifier();
+
+        long sent = 0;
+        final long start = System.nanoTime();
+        while (verifier.cnt < operations) {
+            final long s = Math.min(client.begin(), operations - sent);
+            for (int y = 0; y < s; y++) {
+                client.send(REQUESTS[(int) ((sent + y) & (REQUESTS.length - 1))]);
+            }
+            if (s > 0) sent += client.lazyCommit();
+
+            if (client.receive(verifier) == 0 && s == 0) {
+                Thread.yield();
+            }
+        }
+        final long stop = System.nanoTime();
+
+        client.close();
+        endGate.countDown();
+        endGate.await();
+
+        System.out.format("%15s -> ops/sec: %,11.0f - avg: %5.2f ns%n", "rpc",
+                (operations / (double) (stop - start)) * 1_000_000_000, (double) (stop - start) / operations);
+    }
+
+    private static void startServer(final QBufferServer<Long, Long> server, final CountDownLatch endGate) {
+        new Thread(new Runnable() {
+            private final QBufferRequestHandler<Long, Long> echo = new QBufferRequestHandler<Long, Long>() {
+                @Override
+                public Long handle(final long sequence, final Long request) {
+                    return request;
+                }
+            };
+
+            @Override
+            public void run() {
+                try {
+                    long s;
+                    while ((s = server.serve(echo)) != -1) {
+                        if (s == 0) Thread.yield();
+                    }
+                    server.close();
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }).start();
+    }
+
+    // checks that responses arrive in sequence order, each with its own request
+    private static final class Verifier implements QBufferResponseHandler<Long, Long> {
+        long cnt;
+
+        @Override
+        public void handle(final long sequence, final Long request, final Long response) {
+            if (sequence != cnt || request != response || request != (sequence & (REQUESTS.length - 1))) {
+                throw new IllegalStateException(sequence + " != " + cnt);
+            }
+            cnt++;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2013 Mark D. Horton
+ *
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABIL-
+ * ITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package qbuffer;
+
+import net.nostromo.qbuffer.QBuffer;
+import net.nostromo.qbuffer.QBufferConsumer;
+import net.nostromo.qbuffer.QBufferProducer;
+import net.nostromo.qbuffer.QBufferWorkerPool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+
+// qbuffer worker pool scaling test and unit test
+//
+// The producer adds an incrementing long value, the workers burn some cpu on each item and pass it through, and the
+// consumer verifies the output is still in order.  A function that throws must make process() fail rather than hang.
+public class WorkerPoolTest {
+
+    private final long operations;
+    private final int capacity;
+    private final int batchSize;
+    private final int work;
+
+    public WorkerPoolTest(final long operations, final int capacity, final int batchSize, final int work) {
+        this.operations = operations;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.work = work;
+
+        System.out.format("ops: %,d - batch: %,d - work: %,d%n", operations, batchSize, work);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final long operations = 1_000_000L;
+        final int iterations = 3;
+        final int batchSizeMultiplyer = 100;
+
+        final int[] batchSizes = { 10, 100 };
+        final int[] workerCounts = { 1, 2, 4, 8 };
+        final int work = 1_000;
+
+        failureTest();
+
+        for (int batchSize : batchSizes) {
+            final WorkerPoolTest test =
+                    new WorkerPoolTest(operations, batchSize * batchSizeMultiplyer, batchSize, work);
+
+            for (int workerCount : workerCounts) {
+                for (int iteration = 0; iteration < iterations; iteration++) {
+                    test.workerPoolTest(workerCount);
+                }
+            }
+        }
+    }
+
+    private void workerPoolTest(final int workerCount) throws Exception {
+        final QBuffer<Long> input = new QBuffer<>(capacity, batchSize);
+        final QBuffer<Long> output = new QBuffer<>(capacity, batchSize);
+
+        final QBufferWorkerPool<Long, Long> pool = new QBufferWorkerPool<>(input.consumer(), output.producer(),
+                new Function<Long, Long>() {
+                    @Override
+                    public Long apply(final Long value) {
+                        return spin(value, work) == 0 ? null : value;
+                    }
+                }, workerCount, capacity);
+
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(3);
+
+        // producer
+        new Thread(new Runnable() {
+            private final QBufferProducer<Long> producer = input.producer();
+            private long cnt;
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    while (cnt < operations) {
+                        process();
+                    }
+                    producer.deactivate();
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            private void process() {
+                final long s = Math.min(producer.begin(), operations - cnt);
+                if (s == 0) {
+                    Thread.yield();
+                    return;
+                }
+
+                for (int y = 0; y < s; y++) {
+                    producer.produce(cnt++);
+                }
+                producer.lazyMixCommit();
+            }
+        }).start();
+
+        // coordinator
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    long s;
+                    while ((s = pool.process()) != -1) {
+                        if (s == 0) Thread.yield();
+                    }
+                    output.producer().deactivate();
+                    pool.stop();
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }).start();
+
+        // consumer
+        new Thread(new Runnable() {
+            private final QBufferConsumer<Long> consumer = output.consumer();
+            private long cnt;
+
+            @Override
+            public void run() {
+                try {
+                    startGate.await();
+                    while (process()) {
+                    }
+                    if (cnt != operations) {
+                        throw new IllegalStateException(cnt + " != " + operations);
+                    }
+                    endGate.countDown();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+
+            private boolean process() {
+                final long s = consumer.begin();
+                if (s == -1) return false;
+                if (s == 0) {
+                    Thread.yield();
+                    return true;
+                }
+
+                for (int y = 0; y < s; y++) {
+                    final long value = consumer.consume();
+                    if (value != cnt) {
+                        throw new IllegalStateException(value + " != " + cnt);
+                    }
+                    cnt++;
+                }
+                consumer.lazyMixCommit();
+                return true;
+            }
+        }).start();
+
+        pool.start();
+
+        final long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        final long stop = System.nanoTime();
+
+        System.out.format("%15s -> ops/sec: %,11.0f - avg: %5.2f ns%n", "workers-" + workerCount,
+                (operations / (double) (stop - start)) * 1_000_000_000, (double) (stop - start) / operations);
+    }
+
+    private static void failureTest() throws Exception {
+        final int count = 1_000;
+        final long bad = 500;
+
+        final QBuffer<Long> input = new QBuffer<>(count, 10);
+        final QBuffer<Long> output = new QBuffer<>(count, 10);
+
+        final QBufferProducer<Long> producer = input.producer();
+        for (long cnt = 0; cnt < count; ) {
+            final long s = producer.begin();
+            for (int y = 0; y < s; y++) {
+                producer.produce(cnt++);
+            }
+            producer.commit();
+        }
+        producer.deactivate();
+
+        final QBufferWorkerPool<Long, Long> pool = new QBufferWorkerPool<>(input.consumer(), output.producer(),
+                new Function<Long, Long>() {
+                    @Override
+                    public Long apply(final Long value) {
+                        if (value == bad) throw new IllegalArgumentException("bad value: " + value);
+                        return value;
+                    }
+                }, 2, count);
+        pool.start();
+
+        try {
+            while (pool.process() != -1) {
+                Thread.yield();
+            }
+            throw new IllegalStateException("the function failed but process() finished");
+        } catch (IllegalStateException ex) {
+            if (!(ex.getCause() instanceof IllegalArgumentException)) throw ex;
+            System.out.format("%15s -> %s%n", "failure", ex.getCause().getMessage());
+        } finally {
+            pool.stop();
+        }
+    }
+
+    // cpu bound work that the jit can't remove
+    private static long spin(final long seed, final int rounds) {
+        long x = seed + 1;
+        for (int r = 0; r < rounds; r++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+        }
+        return x | 1;
+    }
+}